@@ -0,0 +1,13 @@
+@echo off
+rem Runs the pipeline benchmarks; extra arguments go to PipelineBenchmark (e.g. --sizes 1,4 --stages palette)
+if not exist out mkdir out
+javac -d out src\*.java bench\*.java
+if %ERRORLEVEL% NEQ 0 (
+    echo Compilation failed.
+    exit /b 1
+)
+rem Benchmark the Vector API kernels when this JDK can build them (16+), else the scalar ones
+set SIMD=
+javac --add-modules jdk.incubator.vector -cp out -d out src\vector\*.java >nul 2>&1
+if %ERRORLEVEL% EQU 0 set SIMD=--add-modules jdk.incubator.vector
+java %SIMD% -Xmx4g -cp out PipelineBenchmark %*
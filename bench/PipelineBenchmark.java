@@ -0,0 +1,286 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Throughput benchmarks for every {@link PixelPipeline} stage, reported in megapixels/s.
+ *
+ * Runs JMH-style warmup and measurement iterations (each at least --time ms of back-to-back
+ * invocations) for every stage over the parameters that stage depends on: source size
+ * (1-64 MP), the five Size-dock block sizes, the nine palettes, dither on/off. Results go
+ * to stdout as a table and to --out as JSON, one record per benchmark/parameter tuple, so
+ * runs from different releases can be diffed by a script.
+ *
+ *   java -Xmx4g -cp out PipelineBenchmark --sizes 1,4 --stages downsample,palette --out bench.json
+ */
+public final class PipelineBenchmark {
+
+    private static final String[] STAGES = {
+        "downsample", "downsampleScalar", "downsampleSat", "palette", "nearestLinear", "nearestScalar", "nearestLut",
+        "outline", "expand", "ghost", "border", "dialog",
+    };
+
+    /** Blackhole: results are folded in here so the JIT cannot drop the work. */
+    private static volatile int sink;
+
+    private interface Op {
+        Object run();
+    }
+
+    private static final class Result {
+        final String stage;
+        final Map<String, Object> params;
+        final double[] mpPerSec;
+        final double msPerOp;
+
+        Result(String stage, Map<String, Object> params, double[] mpPerSec, double msPerOp) {
+            this.stage = stage;
+            this.params = params;
+            this.mpPerSec = mpPerSec;
+            this.msPerOp = msPerOp;
+        }
+
+        double mean() {
+            double s = 0;
+            for (double v : mpPerSec) s += v;
+            return s / mpPerSec.length;
+        }
+
+        double stddev() {
+            if (mpPerSec.length < 2) return 0;
+            double m = mean(), s = 0;
+            for (double v : mpPerSec) s += (v - m) * (v - m);
+            return Math.sqrt(s / (mpPerSec.length - 1));
+        }
+    }
+
+    private int[] sizesMp = { 1, 4, 16, 64 };
+    private int[] blocks = { 4, 8, 16, 32, 128 };
+    private int[] palettes = { 0, 1, 2, 3, 4, 5, 6, 7, 8 };
+    private Set<String> stages = new LinkedHashSet<>(Arrays.asList(STAGES));
+    private int warmup = 3;
+    private int iterations = 5;
+    private long iterationMs = 1000;
+    private File out = new File("bench-results.json");
+    private final List<Result> results = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        PipelineBenchmark b = new PipelineBenchmark();
+        b.parseArgs(args);
+        b.runAll();
+        b.writeJson();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + a);
+            String v = args[++i];
+            switch (a) {
+                case "--sizes": sizesMp = ints(v); break;
+                case "--blocks": blocks = ints(v); break;
+                case "--palettes": palettes = ints(v); break;
+                case "--stages": stages = new LinkedHashSet<>(Arrays.asList(v.split(","))); break;
+                case "--warmup": warmup = Integer.parseInt(v); break;
+                case "--iterations": iterations = Integer.parseInt(v); break;
+                case "--time": iterationMs = Long.parseLong(v); break;
+                case "--threads": PixelPipeline.setParallelism(Integer.parseInt(v)); break;
+                case "--out": out = new File(v); break;
+                default: throw new IllegalArgumentException("Unknown option " + a);
+            }
+        }
+        for (String s : stages) {
+            if (!Arrays.asList(STAGES).contains(s)) throw new IllegalArgumentException("Unknown stage " + s + ", expected one of " + Arrays.toString(STAGES));
+        }
+    }
+
+    private static int[] ints(String csv) {
+        return Arrays.stream(csv.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    private void runAll() {
+        System.out.printf(Locale.ROOT, "# threads=%d kernels=%s warmup=%d iterations=%d time=%dms%n",
+            PixelPipeline.parallelism(), PixelKernels.ACTIVE.name(), warmup, iterations, iterationMs);
+        System.out.printf(Locale.ROOT, "%-16s %-56s %12s %10s %10s%n", "Benchmark", "Params", "MP/s", "+- stddev", "ms/op");
+
+        if (stages.contains("nearestLinear") || stages.contains("nearestScalar") || stages.contains("nearestLut")) runNearest();
+
+        for (int mp : sizesMp) {
+            BufferedImage src = sourceImage(mp);
+            double srcMp = src.getWidth() * (double) src.getHeight() / 1e6;
+            SummedAreaTable sat = stages.contains("downsampleSat") ? SummedAreaTable.build(src, PixelPipeline.NEVER_CANCELLED) : null;
+            if (stages.contains("downsampleSat") && sat == null) System.out.println("# " + mp + " MP: summed-area table does not fit the heap, skipping downsampleSat");
+
+            for (int block : blocks) {
+                Map<String, Object> bp = params("mp", mp, "block", block);
+                BlockGrid avg = PixelPipeline.downsampleBlocks(src, block, null, PixelPipeline.NEVER_CANCELLED);
+                if (stages.contains("downsample")) {
+                    bench("downsample", bp, srcMp, () -> PixelPipeline.downsampleBlocks(src, block, null, PixelPipeline.NEVER_CANCELLED));
+                }
+                if (stages.contains("downsampleScalar")) {
+                    bench("downsampleScalar", bp, srcMp, () -> PixelPipeline.downsampleBlocks(src, block, null, PixelKernels.SCALAR, PixelPipeline.NEVER_CANCELLED));
+                }
+                if (sat != null) {
+                    bench("downsampleSat", bp, srcMp, () -> PixelPipeline.downsampleBlocks(src, block, sat, PixelPipeline.NEVER_CANCELLED));
+                }
+                if (stages.contains("palette")) {
+                    for (int pal : palettes) {
+                        PaletteLut lut = Palettes.lut(pal);
+                        for (boolean dither : new boolean[] { false, true }) {
+                            bench("palette", params("mp", mp, "block", block, "palette", Palettes.NAMES[pal], "dither", dither), srcMp,
+                                () -> PixelPipeline.applyPaletteWithDither(avg, lut, dither, PixelPipeline.NEVER_CANCELLED));
+                        }
+                    }
+                }
+                BlockGrid quantized = PixelPipeline.applyPaletteWithDither(avg, Palettes.lut(palettes[0]), false, PixelPipeline.NEVER_CANCELLED);
+                if (stages.contains("outline")) {
+                    bench("outline", bp, srcMp, () -> PixelPipeline.applyOutline(quantized, Palettes.RGB[palettes[0]], PixelPipeline.NEVER_CANCELLED));
+                }
+                if (stages.contains("expand")) {
+                    BlockGrid outlined = PixelPipeline.applyOutline(quantized, Palettes.RGB[palettes[0]], PixelPipeline.NEVER_CANCELLED);
+                    bench("expand", bp, srcMp, outlined::expand);
+                }
+            }
+
+            BufferedImage rendered = PixelPipeline.applyPaletteWithDither(
+                PixelPipeline.downsampleBlocks(src, 16, null, PixelPipeline.NEVER_CANCELLED), Palettes.lut(palettes[0]), false, PixelPipeline.NEVER_CANCELLED).expand();
+            Map<String, Object> sp = params("mp", mp);
+            if (stages.contains("ghost")) {
+                bench("ghost", sp, srcMp, () -> PixelPipeline.applyGhost(rendered, 10, 10, 0.3f, PixelPipeline.NEVER_CANCELLED));
+            }
+            if (stages.contains("border")) {
+                bench("border", sp, srcMp, () -> PixelPipeline.applyBorder(rendered, 2));
+            }
+            if (stages.contains("dialog")) {
+                for (int style = 0; style < 6; style++) {
+                    int st = style;
+                    bench("dialog", params("mp", mp, "style", style), srcMp,
+                        () -> DialogRenderer.applyDialogToImage(rendered, "Sora:", "> The quick brown fox\njumps over the lazy dog.", st, 80, 20, 90));
+                }
+            }
+        }
+    }
+
+    /** Nearest-colour search on its own: 1 M dithered colours per op, linear search (active and scalar kernels) vs lookup table. */
+    private void runNearest() {
+        int n = 1 << 20;
+        float[] rgb = new float[n * 3];
+        Random rnd = new Random(1);
+        for (int i = 0; i < rgb.length; i++) rgb[i] = PixelPipeline.clamp(rnd.nextInt(256) + (rnd.nextInt(64) / 64.0f - 0.5f) * 48f);
+        for (int pal : palettes) {
+            int[] palette = Palettes.RGB[pal];
+            PaletteLut lut = Palettes.lut(pal);
+            Map<String, Object> p = params("palette", Palettes.NAMES[pal]);
+            if (stages.contains("nearestLinear")) {
+                bench("nearestLinear", p, n / 1e6, () -> {
+                    int acc = 0;
+                    for (int i = 0; i < rgb.length; i += 3) acc += PixelPipeline.findNearestRedmean(rgb[i], rgb[i + 1], rgb[i + 2], palette);
+                    return acc;
+                });
+            }
+            if (stages.contains("nearestScalar")) {
+                bench("nearestScalar", p, n / 1e6, () -> {
+                    int acc = 0;
+                    for (int i = 0; i < rgb.length; i += 3) acc += PixelKernels.SCALAR.nearestRedmean(rgb[i], rgb[i + 1], rgb[i + 2], palette);
+                    return acc;
+                });
+            }
+            if (stages.contains("nearestLut")) {
+                bench("nearestLut", p, n / 1e6, () -> {
+                    int acc = 0;
+                    for (int i = 0; i < rgb.length; i += 3) acc += lut.nearest(rgb[i], rgb[i + 1], rgb[i + 2]);
+                    return acc;
+                });
+            }
+        }
+    }
+
+    private void bench(String stage, Map<String, Object> params, double mpPerOp, Op op) {
+        for (int i = 0; i < warmup; i++) iteration(op);
+        double[] samples = new double[iterations];
+        double totalMs = 0;
+        long totalOps = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] r = iteration(op);
+            double ms = r[1] / 1e6;
+            samples[i] = r[0] * mpPerOp / (ms / 1000.0);
+            totalMs += ms;
+            totalOps += r[0];
+        }
+        Result res = new Result(stage, params, samples, totalMs / totalOps);
+        results.add(res);
+        System.out.printf(Locale.ROOT, "%-16s %-56s %12.2f %10.2f %10.3f%n", stage, params, res.mean(), res.stddev(), res.msPerOp);
+    }
+
+    /** Runs op back to back for at least iterationMs; returns {ops, elapsed ns}. */
+    private long[] iteration(Op op) {
+        long deadline = iterationMs * 1_000_000L;
+        long t0 = System.nanoTime();
+        long ops = 0, elapsed;
+        do {
+            sink ^= System.identityHashCode(op.run());
+            ops++;
+            elapsed = System.nanoTime() - t0;
+        } while (elapsed < deadline);
+        return new long[] { ops, elapsed };
+    }
+
+    /** Deterministic gradient + noise source of about mp megapixels at 3:2. */
+    private static BufferedImage sourceImage(int mp) {
+        int h = (int) Math.round(Math.sqrt(mp * 1e6 / 1.5));
+        int w = (int) Math.round(mp * 1e6 / h);
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] px = PixelPipeline.pixels(img);
+        Random rnd = new Random(mp);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int r = (x * 255 / w + rnd.nextInt(48)) & 0xFF;
+                int g = (y * 255 / h + rnd.nextInt(48)) & 0xFF;
+                int b = ((x + y) * 255 / (w + h) + rnd.nextInt(48)) & 0xFF;
+                px[y * w + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        return img;
+    }
+
+    private static Map<String, Object> params(Object... kv) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (int i = 0; i < kv.length; i += 2) m.put((String) kv[i], kv[i + 1]);
+        return m;
+    }
+
+    private void writeJson() throws IOException {
+        try (PrintWriter w = new PrintWriter(new FileWriter(out))) {
+            w.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                StringBuilder p = new StringBuilder();
+                for (Map.Entry<String, Object> e : r.params.entrySet()) {
+                    if (p.length() > 0) p.append(", ");
+                    Object v = e.getValue();
+                    p.append('"').append(e.getKey()).append("\": ");
+                    if (v instanceof String) p.append('"').append(v).append('"');
+                    else p.append(v);
+                }
+                StringBuilder s = new StringBuilder();
+                for (double v : r.mpPerSec) s.append(s.length() > 0 ? ", " : "").append(String.format(Locale.ROOT, "%.4f", v));
+                w.printf(Locale.ROOT, "  {\"benchmark\": \"%s\", \"params\": {%s}, \"threads\": %d, \"unit\": \"MP/s\", "
+                        + "\"score\": %.4f, \"stddev\": %.4f, \"msPerOp\": %.4f, \"samples\": [%s]}%s%n",
+                    r.stage, p, PixelPipeline.parallelism(), r.mean(), r.stddev(), r.msPerOp, s, i + 1 < results.size() ? "," : "");
+            }
+            w.println("]");
+        }
+        System.out.println("# wrote " + results.size() + " results to " + out);
+    }
+}
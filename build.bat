@@ -8,12 +8,14 @@ if %ERRORLEVEL% NEQ 0 (
 )
 echo [Poly Pixelator] Compiling...
 if not exist out mkdir out
-javac -d out src\PolyPixelator.java
+javac -d out src\*.java
 if %ERRORLEVEL% NEQ 0 (
     echo Compilation failed. Opening web version instead...
     start "" "%~dp0index.html"
     pause
     exit /b 1
 )
+rem Vector API kernels (JDK 16+); without them the scalar loops are used
+javac --add-modules jdk.incubator.vector -cp out -d out src\vector\*.java >nul 2>&1
 echo [Poly Pixelator] Running Java app...
 java -cp out PolyPixelator
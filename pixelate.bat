@@ -0,0 +1,20 @@
+@echo off
+rem Converts one image without the editor, e.g.
+rem   pixelate.bat --in photo.jpg --out photo.png --block 16 --palette PICO-8 --dither --outline --border navy
+rem The first run records a class-data-sharing archive (JDK 13+) in cli\ that later runs start from.
+rem Delete cli\ after changing the sources so the jar and archive are rebuilt.
+if exist cli\pixelator.jar goto run
+if not exist out mkdir out
+if not exist cli mkdir cli
+javac -d out src\*.java
+if %ERRORLEVEL% NEQ 0 (
+    echo Compilation failed.
+    exit /b 1
+)
+jar cf cli\pixelator.jar -C out .
+:run
+if exist cli\pixelator.jsa goto shared
+java -XX:ArchiveClassesAtExit=cli\pixelator.jsa -cp cli\pixelator.jar PixelatorCli %*
+exit /b %ERRORLEVEL%
+:shared
+java -XX:SharedArchiveFile=cli\pixelator.jsa -cp cli\pixelator.jar PixelatorCli %*
@@ -0,0 +1,241 @@
+import java.awt.Dimension;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Converts many files with decode, render and PNG encode overlapped.
+ *
+ * Each stage has its own thread pool, fed through a bounded queue: a full queue blocks
+ * the stage that feeds it, so a slow stage holds back the ones before it instead of
+ * letting decoded images pile up. On top of that, every image reserves its estimated
+ * working set from a memory budget before it is decoded and returns it once encoded,
+ * which caps the images in flight whatever their sizes. An image too large for the
+ * whole budget is converted alone in strips by {@link StreamingPixelator}; with off-heap
+ * rasters enabled ({@link PackedRaster}) every image takes that path, and only its strip
+ * counts against this budget while the decoded pixels wait outside the heap.
+ *
+ * With a {@link RenderCache}, each file is hashed first and an earlier result for the
+ * same bytes and settings is copied out without decoding it.
+ *
+ * A file that fails is reported and skipped; the run carries on. Every file's outcome
+ * is printed as it completes, then totals with images/s and megapixels/s.
+ */
+final class BatchConverter {
+
+    /** Pixels a streamed conversion holds at once, roughly: a strip plus its output rows. */
+    private static final long STREAM_BYTES = (long) StreamingPixelator.DEFAULT_STRIP_PIXELS * 4 * 3;
+
+    final int decodeThreads, processThreads, encodeThreads;
+    final int queueCapacity;
+    final long budgetBytes;
+    final RenderCache cache; // null for none
+
+    BatchConverter(int decodeThreads, int processThreads, int encodeThreads, int queueCapacity, long budgetBytes, RenderCache cache) {
+        this.decodeThreads = decodeThreads;
+        this.processThreads = processThreads;
+        this.encodeThreads = encodeThreads;
+        this.queueCapacity = queueCapacity;
+        this.budgetBytes = budgetBytes;
+        this.cache = cache;
+    }
+
+    /** Defaults for this machine: stage pools sized to the cores, half the heap as the budget. */
+    static BatchConverter withDefaults() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int io = Math.max(1, Math.min(4, cores / 2));
+        return new BatchConverter(io, Math.max(1, cores / 2), io, 4, Runtime.getRuntime().maxMemory() / 2, null);
+    }
+
+    /** Totals of one run. */
+    static final class Summary {
+        final int converted, failed;
+        final long pixels; // source pixels of the files converted
+        final long nanos;
+
+        Summary(int converted, int failed, long pixels, long nanos) {
+            this.converted = converted;
+            this.failed = failed;
+            this.pixels = pixels;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            double s = nanos / 1e9;
+            return String.format(Locale.ROOT, "%d converted, %d failed in %.1f s  |  %.2f images/s, %.1f MP/s",
+                converted, failed, s, converted / s, pixels / 1e6 / s);
+        }
+    }
+
+    /** Converts every input to outDir/&lt;name&gt;.png with p, logging each outcome to log. */
+    Summary run(List<File> inputs, File outDir, RenderParams p, PrintStream log) throws InterruptedException {
+        long t0 = System.nanoTime();
+        long budgetKb = Math.max(1, budgetBytes >> 10);
+        Semaphore budget = new Semaphore((int) Math.min(Integer.MAX_VALUE, budgetKb));
+        CountDownLatch finished = new CountDownLatch(inputs.size());
+        AtomicInteger converted = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong pixels = new AtomicLong();
+        ThreadPoolExecutor decode = pool("decode", decodeThreads);
+        ThreadPoolExecutor process = pool("process", processThreads);
+        ThreadPoolExecutor encode = pool("encode", encodeThreads);
+        boolean fullImage = !PngExport.canIndex(p);
+
+        // Each file moves through the pools as a chain of tasks; whatever happens, it ends
+        // in exactly one of done() or fail(), which releases its budget and counts it off
+        for (File in : inputs) {
+            File out = new File(outDir, baseName(in) + ".png");
+            Job job = new Job(in, out, log, budget, finished, converted, failed, pixels);
+            decode.execute(() -> {
+                try {
+                    Dimension size = StreamingPixelator.probeSize(in);
+                    if (size == null) throw new IllegalArgumentException("unsupported format");
+                    String key = cache != null ? RenderCache.key(RenderCache.digest(in), p, 0) : null;
+                    if (key != null && cache.copyTo(key, out)) {
+                        job.done(size, "cached");
+                        return;
+                    }
+                    long need = workingSet(size, p, fullImage);
+                    if (PackedRaster.enabled() || need > budgetBytes || StreamingPixelator.recommended(size.width, size.height)) {
+                        job.reserve(Math.min(budgetKb, STREAM_BYTES >> 10));
+                        String how = StreamingPixelator.convert(in, out, p, StreamingPixelator.DEFAULT_STRIP_PIXELS, PixelPipeline.NEVER_CANCELLED, pct -> {});
+                        if (key != null) cache.put(key, out);
+                        job.done(size, how);
+                        return;
+                    }
+                    job.reserve(Math.min(budgetKb, Math.max(1, need >> 10)));
+                    RenderMetrics.Span s = RenderMetrics.begin(RenderMetrics.DECODE, size.width, size.height, null);
+                    ImageDecoder.Decoded decoded = ImageDecoder.decode(in, 1, false, PixelPipeline.NEVER_CANCELLED, pct -> {});
+                    s.end();
+                    process.execute(() -> {
+                        try {
+                            PixelPipeline.Rendered r = PixelPipeline.render(decoded.image, 1, size.width, size.height, null, p,
+                                fullImage, PixelPipeline.NEVER_CANCELLED);
+                            encode.execute(() -> {
+                                try {
+                                    RenderMetrics.Span e = RenderMetrics.begin(RenderMetrics.ENCODE, size.width, size.height, p);
+                                    String how = PngExport.write(r.grid, r.image, p, 0, out);
+                                    e.end();
+                                    if (key != null) cache.put(key, out);
+                                    job.done(size, how);
+                                } catch (Throwable ex) {
+                                    job.fail(ex);
+                                }
+                            });
+                        } catch (Throwable ex) {
+                            job.fail(ex);
+                        }
+                    });
+                } catch (Throwable ex) {
+                    job.fail(ex);
+                }
+            });
+        }
+        finished.await();
+        decode.shutdown();
+        process.shutdown();
+        encode.shutdown();
+        return new Summary(converted.get(), failed.get(), pixels.get(), System.nanoTime() - t0);
+    }
+
+    /**
+     * Bytes an image holds from decode to encode: the decoded raster plus the reader's own
+     * copy while converting it, the full-resolution render and ghost copy if the export
+     * needs one, and the dialog copy.
+     */
+    static long workingSet(Dimension size, RenderParams p, boolean fullImage) {
+        long px = (long) size.width * size.height;
+        long perPixel = 4 + 3 + (fullImage ? 8 : 0) + (p.hasDialog() ? 4 : 0);
+        return px * perPixel + (1 << 20);
+    }
+
+    private static String baseName(File f) {
+        String n = f.getName();
+        int dot = n.lastIndexOf('.');
+        return dot > 0 ? n.substring(0, dot) : n;
+    }
+
+    /**
+     * A fixed pool whose bounded queue blocks the submitting thread when full, rather than
+     * rejecting the task, so each stage can only run ahead of the next by the queue size.
+     */
+    private ThreadPoolExecutor pool(String stage, int threads) {
+        AtomicInteger n = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "batch-" + stage + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        RejectedExecutionHandler block = (r, executor) -> {
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new java.util.concurrent.RejectedExecutionException(e);
+            }
+        };
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), factory, block);
+    }
+
+    /** One file's passage through the stages, and its share of the memory budget. */
+    private static final class Job {
+        private final File in, out;
+        private final PrintStream log;
+        private final Semaphore budget;
+        private final CountDownLatch finished;
+        private final AtomicInteger converted, failed;
+        private final AtomicLong pixels;
+        private final long t0 = System.nanoTime();
+        private int reservedKb;
+
+        Job(File in, File out, PrintStream log, Semaphore budget, CountDownLatch finished,
+            AtomicInteger converted, AtomicInteger failed, AtomicLong pixels) {
+            this.in = in;
+            this.out = out;
+            this.log = log;
+            this.budget = budget;
+            this.finished = finished;
+            this.converted = converted;
+            this.failed = failed;
+            this.pixels = pixels;
+        }
+
+        void reserve(long kb) throws InterruptedException {
+            budget.acquire((int) kb);
+            reservedKb = (int) kb;
+        }
+
+        void done(Dimension size, String how) {
+            release();
+            converted.incrementAndGet();
+            pixels.addAndGet((long) size.width * size.height);
+            log.println("ok    " + in.getName() + " -> " + out.getName() + "  (" + size.width + "x" + size.height + ", " + how + ", "
+                + (System.nanoTime() - t0) / 1_000_000 + " ms)");
+            finished.countDown();
+        }
+
+        void fail(Throwable ex) {
+            release();
+            failed.incrementAndGet();
+            log.println("FAIL  " + in.getName() + ": " + (ex.getMessage() != null ? ex.getMessage() : ex.toString()));
+            finished.countDown();
+        }
+
+        private void release() {
+            budget.release(reservedKb);
+            reservedKb = 0;
+        }
+    }
+}
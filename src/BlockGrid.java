@@ -0,0 +1,179 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A render at block resolution: one 0xRRGGBB cell per N×N block of a width×height image.
+ *
+ * Downsampling, palette mapping and outline detection all work on these cells; the
+ * full-resolution picture only exists once {@link #expand()} or {@link #expandRegion}
+ * is asked for it (display, export, or pixel-level FX like ghost and border).
+ *
+ * Outline edges are stored per cell: a cell whose left (or top) neighbour has a
+ * different colour gets its first lineW columns (or rows) painted in the outline
+ * colour, which is exactly where the old full-resolution outline pass drew them.
+ */
+final class BlockGrid {
+
+    static final byte EDGE_LEFT = 1;
+    static final byte EDGE_TOP = 2;
+
+    final int width;
+    final int height;
+    final int blockSize;
+    final int cols;
+    final int rows;
+    final int[] cells;
+
+    /** Per-cell EDGE_* bits, or null if outline is off. */
+    final byte[] edges;
+    final int outlineRgb;
+    final int lineW;
+
+    BlockGrid(int width, int height, int blockSize, int[] cells) {
+        this(width, height, blockSize, cells, null, 0, 0);
+    }
+
+    private BlockGrid(int width, int height, int blockSize, int[] cells, byte[] edges, int outlineRgb, int lineW) {
+        this.width = width;
+        this.height = height;
+        this.blockSize = blockSize;
+        this.cols = (width + blockSize - 1) / blockSize;
+        this.rows = (height + blockSize - 1) / blockSize;
+        this.cells = cells;
+        this.edges = edges;
+        this.outlineRgb = outlineRgb;
+        this.lineW = lineW;
+    }
+
+    BlockGrid withCells(int[] newCells) {
+        return new BlockGrid(width, height, blockSize, newCells);
+    }
+
+    BlockGrid withOutline(byte[] newEdges, int rgb, int w) {
+        return new BlockGrid(width, height, blockSize, cells, newEdges, rgb, w);
+    }
+
+    /**
+     * This grid standing for a width×height image in blockSize blocks: computed on a
+     * subsampled source, for the full-resolution image it was sampled from, or the other
+     * way round. Outline stripes scale with the blocks, as in {@link #scaledTo}. The block
+     * counts must agree.
+     */
+    BlockGrid asBlocksOf(int width, int height, int blockSize) {
+        boolean keepEdges = edges != null && blockSize >= 2;
+        int w = keepEdges ? Math.max(1, Math.min(blockSize - 1, lineW * blockSize / this.blockSize)) : 0;
+        BlockGrid g = new BlockGrid(width, height, blockSize, cells, keepEdges ? edges : null, outlineRgb, w);
+        if (g.cols != cols || g.rows != rows) throw new IllegalArgumentException("Grid shape " + cols + "×" + rows + " does not match " + g.cols + "×" + g.rows);
+        return g;
+    }
+
+    /**
+     * The same cells at scale×scale pixels each (native block resolution, enlarged), with
+     * outline stripes thinned in proportion; below scale 2 a stripe would fill its whole
+     * cell, so outline edges are dropped.
+     */
+    BlockGrid scaledTo(int scale) {
+        if (scale < 1) throw new IllegalArgumentException("Invalid scale " + scale);
+        boolean keepEdges = edges != null && scale >= 2;
+        int w = keepEdges ? Math.max(1, Math.min(scale - 1, lineW * scale / blockSize)) : 0;
+        return new BlockGrid(cols * scale, rows * scale, scale, cells, keepEdges ? edges : null, outlineRgb, w);
+    }
+
+    /**
+     * This grid with each k×k group of cells merged into one, the area-weighted average of
+     * the cells it covers: what downsampling the source again at k times the block size
+     * would give, up to the rounding already in the cells. Ignores outline edges.
+     */
+    BlockGrid coarsened(int k) {
+        if (k < 1) throw new IllegalArgumentException("Invalid factor " + k);
+        BlockGrid g = new BlockGrid(width, height, blockSize * k, null);
+        int[] out = new int[g.cols * g.rows];
+        for (int gy = 0; gy < g.rows; gy++) {
+            int cyEnd = Math.min(rows, (gy + 1) * k);
+            for (int gx = 0; gx < g.cols; gx++) {
+                int cxEnd = Math.min(cols, (gx + 1) * k);
+                long r = 0, gr = 0, b = 0, area = 0;
+                for (int cy = gy * k; cy < cyEnd; cy++) {
+                    int ch = cellHeight(cy);
+                    for (int cx = gx * k; cx < cxEnd; cx++) {
+                        long a = (long) cellWidth(cx) * ch;
+                        int rgb = cells[cy * cols + cx];
+                        r += ((rgb >> 16) & 0xFF) * a;
+                        gr += ((rgb >> 8) & 0xFF) * a;
+                        b += (rgb & 0xFF) * a;
+                        area += a;
+                    }
+                }
+                out[gy * g.cols + gx] = (int) (r / area) << 16 | (int) (gr / area) << 8 | (int) (b / area);
+            }
+        }
+        return g.withCells(out);
+    }
+
+    /** Width in pixels of cell column cx (the last column may be partial). */
+    int cellWidth(int cx) {
+        return Math.min(blockSize, width - cx * blockSize);
+    }
+
+    /** Height in pixels of cell row cy (the last row may be partial). */
+    int cellHeight(int cy) {
+        return Math.min(blockSize, height - cy * blockSize);
+    }
+
+    /** One pixel per cell, for nearest-neighbour scaling by blockSize. Ignores outline edges. */
+    BufferedImage toCellImage() {
+        BufferedImage img = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_RGB);
+        System.arraycopy(cells, 0, PixelPipeline.pixels(img), 0, cells.length);
+        return img;
+    }
+
+    /** The full-resolution TYPE_INT_RGB image this grid stands for, expanded in parallel row bands. */
+    BufferedImage expand() {
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] dst = PixelPipeline.pixels(out);
+        PixelPipeline.forEachBand(height, (y0, y1) -> expandRegion(0, y0, width, y1 - y0, dst, y0 * width, width));
+        return out;
+    }
+
+    /**
+     * Writes full-resolution pixels of [x0, x0+rw) × [y0, y0+rh) into dst, starting at
+     * dst[offset] with the given row stride.
+     */
+    void expandRegion(int x0, int y0, int rw, int rh, int[] dst, int offset, int stride) {
+        int prevPattern = -1;
+        for (int y = y0; y < y0 + rh; y++) {
+            int cy = y / blockSize;
+            int rowInCell = y - cy * blockSize;
+            int out = offset + (y - y0) * stride;
+            // Within a cell row, every stripe row and every row below the stripe is identical
+            int pattern = (cy << 1) | (edges != null && rowInCell < lineW ? 1 : 0);
+            if (pattern == prevPattern) {
+                System.arraycopy(dst, out - stride, dst, out, rw);
+                continue;
+            }
+            prevPattern = pattern;
+            int rowBase = cy * cols;
+            int x = x0;
+            int xEnd = x0 + rw;
+            while (x < xEnd) {
+                int cx = x / blockSize;
+                int cellX0 = cx * blockSize;
+                int runEnd = Math.min(cellX0 + blockSize, xEnd);
+                int cell = rowBase + cx;
+                int rgb = cells[cell];
+                if (edges != null) {
+                    byte e = edges[cell];
+                    if ((e & EDGE_TOP) != 0 && rowInCell < lineW) {
+                        rgb = outlineRgb;
+                    } else if ((e & EDGE_LEFT) != 0 && x < cellX0 + lineW) {
+                        int stripeEnd = Math.min(cellX0 + lineW, runEnd);
+                        Arrays.fill(dst, out + x - x0, out + stripeEnd - x0, outlineRgb);
+                        x = stripeEnd;
+                    }
+                }
+                Arrays.fill(dst, out + x - x0, out + runEnd - x0, rgb);
+                x = runEnd;
+            }
+        }
+    }
+}
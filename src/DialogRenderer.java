@@ -0,0 +1,272 @@
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Draws the RPG-style dialog overlay (name + text box) in one of six styles.
+ *
+ * Headless: everything is plain Graphics2D on an image, so the same overlay can be
+ * drawn by the UI worker, onto each strip of a streamed conversion (by translating
+ * the Graphics into full-image coordinates), or by anything else.
+ */
+final class DialogRenderer {
+
+    private DialogRenderer() {}
+
+    static BufferedImage applyDialogToImage(BufferedImage src, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct) {
+        if (name == null) name = "";
+        if (text == null) text = "";
+        if (name.isEmpty() && text.isEmpty()) return src;
+        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = out.createGraphics();
+        g2.drawImage(src, 0, 0, null);
+        drawDialogOntoGraphics(g2, src.getWidth(), src.getHeight(), name, text, style, verticalPos, boxHeightPct, boxWidthPct);
+        g2.dispose();
+        return out;
+    }
+
+    static void drawDialogOntoGraphics(Graphics2D g2, int imgW, int imgH, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct) {
+        Layout l = Layout.of(imgW, imgH, name, text, style, verticalPos, boxHeightPct, boxWidthPct, g2);
+        int boxX = l.boxX, boxY = l.boxY, boxW = l.boxW, boxH = l.boxH;
+        Font textFont = l.textFont;
+
+        if (style == 0 || style == 1 || style == 2 || style == 3) {
+            // Filled box styles: JRPG Blue(0), JRPG Black(1), Classic(2), Modern(3)
+            Color fillColor;
+            if (style == 1 || style == 2) fillColor = Color.BLACK;
+            else if (style == 3) fillColor = new Color(0x2a, 0x2a, 0x2a);
+            else fillColor = new Color(0x00, 0x20, 0x60);
+            g2.setColor(fillColor);
+            g2.fillRect(boxX, boxY, boxW, boxH);
+            g2.setColor(Color.WHITE);
+            g2.setStroke(new BasicStroke(3));
+            g2.drawRect(boxX + 2, boxY + 2, boxW - 4, boxH - 4);
+            g2.setStroke(new BasicStroke(1));
+            g2.setFont(textFont);
+
+            if (!l.displayName.isEmpty()) {
+                Color nameColor = (style == 3) ? new Color(0xaa, 0xcc, 0xff) : Color.YELLOW;
+                drawPlainString(g2, l.displayName, l.textX, l.nameY, nameColor);
+            }
+            for (int i = 0; i < l.lines.length; i++) {
+                drawPlainString(g2, l.lines[i], l.textX, l.lineY[i], Color.WHITE);
+            }
+
+        } else if (style == 4) {
+            // Terminal: semi-transparent black box, green text
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.75f));
+            g2.setColor(Color.BLACK);
+            g2.fillRect(boxX, boxY, boxW, boxH);
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1f));
+            g2.setFont(textFont);
+            Color green = new Color(0x00, 0xFF, 0x00);
+
+            if (!l.displayName.isEmpty()) {
+                drawPlainString(g2, l.displayName, l.textX, l.nameY, green);
+            }
+            for (int i = 0; i < l.lines.length; i++) {
+                drawPlainString(g2, l.lines[i], l.textX, l.lineY[i], green);
+            }
+
+        } else if (style == 5) {
+            // Ghost: no background, white text with thick black outline for readability
+            g2.setFont(textFont);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+            if (!l.displayName.isEmpty()) {
+                drawOutlinedString(g2, l.displayName, l.textX, l.nameY, Color.YELLOW, Color.BLACK, 2);
+            }
+            for (int i = 0; i < l.lines.length; i++) {
+                drawOutlinedString(g2, l.lines[i], l.textX, l.lineY[i], Color.WHITE, Color.BLACK, 2);
+            }
+        }
+    }
+
+    /**
+     * Conservative bounds of everything drawDialogOntoGraphics would touch on an imgW×imgH
+     * image, clipped to the image; empty if there is nothing to draw. Lets callers redraw
+     * just this region when only the dialog changed.
+     */
+    static Rectangle dialogBounds(int imgW, int imgH, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct) {
+        if (name == null) name = "";
+        if (text == null) text = "";
+        Rectangle image = new Rectangle(0, 0, imgW, imgH);
+        if (name.isEmpty() && text.isEmpty()) return new Rectangle();
+        Graphics2D g2 = SCRATCH.createGraphics();
+        try {
+            Layout l = Layout.of(imgW, imgH, name, text, style, verticalPos, boxHeightPct, boxWidthPct, g2);
+            FontMetrics fm = g2.getFontMetrics();
+            // Outline thickness plus room for glyphs that overhang their advance
+            int slack = 2 + Math.max(2, l.textFont.getSize() / 4);
+            Rectangle r = style == 5 ? null : new Rectangle(l.boxX, l.boxY, l.boxW, l.boxH);
+            r = addText(r, fm, l.displayName, l.textX, l.nameY, slack);
+            for (int i = 0; i < l.lines.length; i++) r = addText(r, fm, l.lines[i], l.textX, l.lineY[i], slack);
+            return r == null ? new Rectangle() : r.intersection(image);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private static final BufferedImage SCRATCH = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    private static Rectangle addText(Rectangle r, FontMetrics fm, String s, int x, int y, int slack) {
+        if (s.isEmpty()) return r;
+        Rectangle t = new Rectangle(x - slack, y - fm.getMaxAscent() - slack, fm.stringWidth(s) + 2 * slack, fm.getMaxAscent() + fm.getMaxDescent() + 2 * slack);
+        return r == null ? t : r.union(t);
+    }
+
+    /**
+     * Box geometry, font and the baseline of every line that fits in the box, for one
+     * image size and set of dialog settings. The most recently used few are kept, keyed
+     * on everything they depend on: an overlay redraw asks for the same layout twice
+     * (bounds, then drawing), every strip of a streamed conversion asks for it again,
+     * and the editor, the streamer and service threads may be drawing different dialogs
+     * at the same time.
+     */
+    private static final class Layout {
+        private static final int MAX_LAYOUTS = 16;
+        private static final Map<Key, Layout> LAYOUTS = new LinkedHashMap<Key, Layout>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+                return size() > MAX_LAYOUTS;
+            }
+        };
+
+        final int boxX, boxY, boxW, boxH, textX;
+        final Font textFont;
+        final String displayName;
+        final int nameY;
+        final String[] lines;
+        final int[] lineY;
+
+        /** The layout for these settings, measured with g2's font metrics; sets the text font on g2. */
+        static Layout of(int imgW, int imgH, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct, Graphics2D g2) {
+            FontRenderContext frc = g2.getFontRenderContext();
+            Key k = new Key(imgW, imgH, name, text, style, verticalPos, boxHeightPct, boxWidthPct, frc);
+            Layout l;
+            synchronized (LAYOUTS) {
+                l = LAYOUTS.get(k);
+            }
+            if (l == null) {
+                // Measured outside the lock; two threads may both measure, and either result will do
+                l = new Layout(imgW, imgH, name, text, style, verticalPos, boxHeightPct, boxWidthPct, g2);
+                synchronized (LAYOUTS) {
+                    LAYOUTS.put(k, l);
+                }
+            }
+            g2.setFont(l.textFont);
+            return l;
+        }
+
+        /** Everything a layout depends on. */
+        private static final class Key {
+            final int imgW, imgH, style, verticalPos, boxHeightPct, boxWidthPct;
+            final String name, text;
+            final FontRenderContext frc;
+
+            Key(int imgW, int imgH, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct, FontRenderContext frc) {
+                this.imgW = imgW;
+                this.imgH = imgH;
+                this.name = name;
+                this.text = text;
+                this.style = style;
+                this.verticalPos = verticalPos;
+                this.boxHeightPct = boxHeightPct;
+                this.boxWidthPct = boxWidthPct;
+                this.frc = frc;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Key)) return false;
+                Key k = (Key) o;
+                return imgW == k.imgW && imgH == k.imgH && style == k.style && verticalPos == k.verticalPos
+                    && boxHeightPct == k.boxHeightPct && boxWidthPct == k.boxWidthPct
+                    && name.equals(k.name) && text.equals(k.text) && frc.equals(k.frc);
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(imgW, imgH, name, text, style, verticalPos, boxHeightPct, boxWidthPct, frc);
+            }
+        }
+
+        private Layout(int imgW, int imgH, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct, Graphics2D g2) {
+            int baseMargin = Math.max(40, (int)(imgW * 0.05));
+            int usableW = imgW - 2 * baseMargin;
+            int boxW = Math.max(80, (int)(usableW * boxWidthPct / 100.0));
+            int boxX = baseMargin + (usableW - boxW) / 2;
+            int boxY = (int) (imgH * (verticalPos / 100.0));
+            int lineH = Math.max(14, imgH / 25);
+            int padding = lineH / 2;
+            int boxH = Math.max(lineH * 2 + padding * 2, (int) (imgH * boxHeightPct / 100.0));
+            boxY = Math.max(0, Math.min(boxY, imgH - boxH - padding));
+
+            // Name: strip trailing colon/whitespace for all styles
+            String displayName = name.replaceFirst("[:\\s]+$", "").trim();
+            // Text: strip leading "> " markers
+            String displayText = text.replaceFirst("^\\s*>\\s*", "");
+
+            int fontSize = Math.max(10, Math.min(24, imgH / 20));
+            Font textFont = (style == 4)
+                ? new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(10, Math.min(20, imgH / 25)))
+                : new Font(Font.MONOSPACED, Font.PLAIN, fontSize);
+            g2.setFont(textFont);
+            FontMetrics fm = g2.getFontMetrics();
+
+            // Count content lines for vertical centering
+            String[] textLines = displayText.split("\n");
+            int numLines = 0;
+            if (!displayName.isEmpty()) numLines++;
+            for (String line : textLines) {
+                String trimmed = line.replaceFirst("^\\s*>\\s*", "");
+                if (!trimmed.isEmpty()) numLines++;
+            }
+            if (numLines == 0 && !displayText.isEmpty()) numLines = 1;
+            int nameGap = (!displayName.isEmpty() && numLines > 1) ? lineH / 3 : 0;
+            int totalContentH = numLines * lineH + nameGap;
+            int startY = boxY + (boxH - totalContentH) / 2 + fm.getAscent();
+
+            // Lines stop once the baseline passes the bottom padding
+            int curY = startY;
+            if (!displayName.isEmpty()) curY += lineH + nameGap;
+            String[] lines = new String[textLines.length];
+            int[] lineY = new int[textLines.length];
+            int n = 0;
+            for (String line : textLines) {
+                if (curY > boxY + boxH - padding) break;
+                lines[n] = line.replaceFirst("^\\s*>\\s*", "");
+                lineY[n++] = curY;
+                curY += lineH;
+            }
+
+            this.boxX = boxX;
+            this.boxY = boxY;
+            this.boxW = boxW;
+            this.boxH = boxH;
+            this.textX = boxX + padding + 3;
+            this.textFont = textFont;
+            this.displayName = displayName;
+            this.nameY = startY;
+            this.lines = java.util.Arrays.copyOf(lines, n);
+            this.lineY = java.util.Arrays.copyOf(lineY, n);
+        }
+    }
+
+    /**
+     * Plain text in one colour, blitted from the cached glyph sprites of an atlas with no
+     * outline. The box styles draw without antialiasing, so every sprite pixel is opaque
+     * or empty and the blit puts down the same colours drawString would.
+     */
+    private static void drawPlainString(Graphics2D g2, String str, int x, int y, Color colour) {
+        GlyphAtlas.get(g2.getFont(), colour, colour, 0, g2.getFontRenderContext()).drawString(g2, str, x, y);
+    }
+
+    /** Fill over a thickness-pixel outline, blitted from the cached glyph sprites. */
+    private static void drawOutlinedString(Graphics2D g2, String str, int x, int y, Color fill, Color outline, int thickness) {
+        GlyphAtlas.get(g2.getFont(), fill, outline, thickness, g2.getFontRenderContext()).drawString(g2, str, x, y);
+    }
+}
@@ -0,0 +1,423 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The {@link FxStage}s one render runs, in order, and the loops that run them.
+ *
+ * Cell stages go first, on the block grid: palette mapping, any plugin cell stages,
+ * then outline if on. Pixel stages follow on the expanded image: ghost if on, then any
+ * plugin pixel stages. Consecutive point-wise stages at a level become a single pass,
+ * each row band taking every colour through all of them before storing it, so a
+ * palette followed by a colour adjustment reads and writes the grid once. A
+ * neighbourhood stage gets a pass of its own: cell stages split their own rows, and
+ * pixel stages have the chain split theirs into bands that each write only their rows
+ * of a fresh image, or of the caller's image given to {@link #into}.
+ *
+ * A chain from {@link #tiled} is fed one horizontal strip at a time, top to bottom,
+ * and carries the last halo rows of each neighbourhood stage's input from one strip
+ * to the next, so strips come out as the same rows a whole-image pass would produce.
+ * Ghost reads the carried rows where they are; plugin stages get them stacked on top
+ * of the strip. It also keeps the images its pixel stages write into and reuses them
+ * for the next strip of the same size, so the image {@link #pixels} returns is only
+ * good until the next call.
+ */
+final class FxChain {
+
+    private final RenderParams p;
+    private final PaletteLut lut;
+    private final int factor;
+    private final FxStage[] cellStages;
+    private final FxStage[] pixelStages;
+    /** Per stage (cell stages, then pixel stages), its carried input rows; null until tiled work has some. */
+    private final int[][] carried;
+    /** Per stage, images a tiled chain reuses from strip to strip: extended source, output, trimmed output. */
+    private final BufferedImage[][] buffers;
+    private final boolean tiled;
+    private BufferedImage target; // see into()
+    private int cellY, pixelY; // rows already processed by a tiled chain
+    private int timedW, timedH; // 0 if the passes are not timed
+
+    private FxChain(RenderParams p, int factor, boolean tiled) {
+        this.p = p;
+        this.lut = Palettes.lut(p.paletteIndex);
+        this.factor = factor;
+        this.tiled = tiled;
+        List<FxStage> cells = new ArrayList<>();
+        List<FxStage> pixels = new ArrayList<>();
+        cells.add(PALETTE);
+        if (p.ghost) pixels.add(GHOST);
+        for (String name : p.fx) {
+            FxStage s = plugin(name);
+            (s.onCells() ? cells : pixels).add(s);
+        }
+        if (p.outline) cells.add(OUTLINE);
+        cellStages = cells.toArray(new FxStage[0]);
+        pixelStages = pixels.toArray(new FxStage[0]);
+        carried = new int[cellStages.length + pixelStages.length][];
+        buffers = new BufferedImage[carried.length][3];
+    }
+
+    /** The stages p asks for, on frames where one pixel stands for factor×factor full-size pixels. */
+    static FxChain of(RenderParams p, int factor) {
+        return new FxChain(p, factor, false);
+    }
+
+    /** The stages p asks for at full size, for an image fed through in strips from the top. */
+    static FxChain tiled(RenderParams p) {
+        return new FxChain(p, 1, true);
+    }
+
+    /**
+     * Has pixel neighbourhood stages write into target rather than a new image whenever it
+     * is a TYPE_INT_RGB image of their size and not their input, so a caller can alternate
+     * two images across renders, one on screen and one being drawn.
+     */
+    FxChain into(BufferedImage target) {
+        this.target = target;
+        return this;
+    }
+
+    /** Times each pass through {@link RenderMetrics} as work on a w×h image. */
+    FxChain timed(int w, int h) {
+        timedW = w;
+        timedH = h;
+        return this;
+    }
+
+    /** True if any stage works on full-resolution pixels, so the grid alone is not the result. */
+    boolean hasPixelStages() {
+        return pixelStages.length > 0;
+    }
+
+    /** True if every colour out of the chain is one its palette or outline put there, so it can be saved indexed. */
+    boolean keepsPalette() {
+        if (hasPixelStages()) return false;
+        for (FxStage s : cellStages) if (!s.keepsPalette()) return false;
+        return true;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // PLUGINS
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Plugin stages on the class path by name, in the order found; looked for on first use. */
+    private static final class Plugins {
+        static final Map<String, FxStage> BY_NAME = load();
+    }
+
+    /** Names of the plugin stages on the class path. */
+    static List<String> pluginNames() {
+        return Collections.unmodifiableList(new ArrayList<>(Plugins.BY_NAME.keySet()));
+    }
+
+    /** The plugin stage called name; IllegalArgumentException if there is none. */
+    static FxStage plugin(String name) {
+        Map<String, FxStage> all = Plugins.BY_NAME;
+        FxStage s = all.get(name);
+        if (s == null) throw new IllegalArgumentException("Unknown effect " + name + (all.isEmpty() ? " (no effects installed)" : " (one of " + String.join(", ", all.keySet()) + ")"));
+        return s;
+    }
+
+    /** Effect names from a comma-separated list, each checked to exist. */
+    static String[] parseNames(String list) {
+        List<String> names = new ArrayList<>();
+        for (String n : list.split(",")) {
+            n = n.trim();
+            if (n.isEmpty()) continue;
+            plugin(n);
+            names.add(n);
+        }
+        return names.toArray(new String[0]);
+    }
+
+    private static Map<String, FxStage> load() {
+        Map<String, FxStage> found = new LinkedHashMap<>();
+        Iterator<FxStage> it = ServiceLoader.load(FxStage.class).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) break;
+                FxStage s = it.next();
+                String name = s.name();
+                if (name.equals(PALETTE.name()) || name.equals(OUTLINE.name()) || name.equals(GHOST.name()) || found.containsKey(name)) {
+                    System.err.println("Ignoring effect " + s.getClass().getName() + ": the name " + name + " is taken");
+                    continue;
+                }
+                found.put(name, s);
+            } catch (ServiceConfigurationError e) {
+                // One broken jar or provider should not take the others down with it
+                System.err.println("Ignoring effect: " + e.getMessage());
+            }
+        }
+        return found;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // PASSES
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** grid through the cell stages. For a tiled chain, grid is the next strip's cells. */
+    BlockGrid cells(BlockGrid grid, BooleanSupplier cancelled) {
+        FxStage.Context c = new FxStage.Context(p, lut, factor, grid, cellY, cancelled);
+        for (int i = 0; i < cellStages.length; ) {
+            int end = pointRun(cellStages, i, c);
+            RenderMetrics.Span s = begin(cellStages[i]);
+            if (end > i) {
+                FxStage[] run = Arrays.copyOfRange(cellStages, i, end);
+                int[] in = grid.cells;
+                int[] out = new int[in.length];
+                int cols = grid.cols;
+                PixelPipeline.forEachBand(grid.rows, (y0, y1) -> mapRows(in, out, cols, y0, y1, run, c));
+                grid = grid.withCells(out);
+                i = end;
+            } else {
+                int[] in = grid.cells;
+                grid = cellStages[i].apply(grid, carried[i], c);
+                if (tiled) carried[i] = tail(carried[i], in, grid.cols, cellStages[i].halo(c));
+                i++;
+            }
+            end(s);
+        }
+        if (tiled) cellY += grid.rows;
+        return grid;
+    }
+
+    /**
+     * grid expanded to full resolution and through the pixel stages, or just expanded if
+     * there are none. For a tiled chain, grid is the next strip's cells.
+     */
+    BufferedImage pixels(BlockGrid grid, BooleanSupplier cancelled) {
+        // Expanding is charged to the first pass, which is what needs it
+        RenderMetrics.Span s = pixelStages.length > 0 ? begin(pixelStages[0]) : null;
+        BufferedImage img = grid.expand();
+        int w = img.getWidth();
+        int h = img.getHeight();
+        FxStage.Context c = new FxStage.Context(p, lut, factor, null, pixelY, cancelled);
+        for (int i = 0; i < pixelStages.length; ) {
+            if (s == null) s = begin(pixelStages[i]);
+            int end = pointRun(pixelStages, i, c);
+            if (end > i) {
+                FxStage[] run = Arrays.copyOfRange(pixelStages, i, end);
+                int[] px = PixelPipeline.pixels(img);
+                PixelPipeline.forEachBand(h, (y0, y1) -> mapRows(px, px, w, y0, y1, run, c));
+                i = end;
+            } else {
+                img = filter(pixelStages[i], cellStages.length + i, img, c);
+                i++;
+            }
+            end(s);
+            s = null;
+        }
+        if (tiled) pixelY += h;
+        return img;
+    }
+
+    /** End of the run of point-wise stages starting at from; from itself if that stage is not point-wise. */
+    private static int pointRun(FxStage[] stages, int from, FxStage.Context c) {
+        int end = from;
+        while (end < stages.length && stages[end].halo(c) == 0) end++;
+        return end;
+    }
+
+    /** Rows [y0, y1) of in, width values each, through every stage of run in turn into out (which may be in). */
+    private static void mapRows(int[] in, int[] out, int width, int y0, int y1, FxStage[] run, FxStage.Context c) {
+        for (int y = y0; y < y1; y++) {
+            PixelPipeline.checkCancelled(c.cancelled);
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                int rgb = in[i];
+                for (FxStage s : run) rgb = s.map(rgb, x, y, c);
+                out[i] = rgb;
+            }
+        }
+    }
+
+    /**
+     * One pixel neighbourhood stage over img in bands. A tiled chain puts the rows it
+     * carried from the strip above on top of img first, and keeps img's last rows for
+     * the strip below.
+     */
+    private BufferedImage filter(FxStage stage, int slot, BufferedImage img, FxStage.Context c) {
+        if (stage == GHOST) return ghost(slot, img, c);
+        int w = img.getWidth();
+        int h = img.getHeight();
+        int[] above = carried[slot];
+        int top = above != null ? above.length / w : 0;
+        BufferedImage src = img;
+        FxStage.Context sc = c;
+        if (top > 0) {
+            src = buffer(slot, 0, w, top + h);
+            int[] ext = PixelPipeline.pixels(src);
+            System.arraycopy(above, 0, ext, 0, above.length);
+            System.arraycopy(PixelPipeline.pixels(img), 0, ext, above.length, w * h);
+            sc = new FxStage.Context(p, lut, factor, null, c.originY - top, c.cancelled);
+        }
+        BufferedImage in = src;
+        FxStage.Context bc = sc;
+        BufferedImage dst = top == 0 ? output(slot, img) : buffer(slot, 1, w, top + h);
+        PixelPipeline.forEachBand(h, (y0, y1) -> {
+            PixelPipeline.checkCancelled(bc.cancelled);
+            stage.filter(in, dst, top + y0, top + y1, bc);
+        });
+        if (tiled) carried[slot] = tail(above, PixelPipeline.pixels(img), w, stage.halo(c));
+        if (top == 0) return dst;
+        BufferedImage out = buffer(slot, 2, w, h);
+        System.arraycopy(PixelPipeline.pixels(dst), top * w, PixelPipeline.pixels(out), 0, w * h);
+        return out;
+    }
+
+    /**
+     * Ghost over img in bands, straight into its output. Copies that reach above the strip
+     * read the rows carried from the strip above where they are, so a tiled chain neither
+     * stacks them on top of img nor trims the result.
+     */
+    private BufferedImage ghost(int slot, BufferedImage img, FxStage.Context c) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        int[] above = carried[slot];
+        int[] in = PixelPipeline.pixels(img);
+        BufferedImage dst = output(slot, img);
+        int[] out = PixelPipeline.pixels(dst);
+        int off = c.scaled(p.ghostOffset);
+        PixelPipeline.forEachBand(h, (y0, y1) -> {
+            PixelPipeline.checkCancelled(c.cancelled);
+            PixelPipeline.ghostRows(above, in, out, w, h, y0, y1, off, off, p.ghostAlpha, p.ghostTrails);
+        });
+        if (tiled) carried[slot] = tail(above, in, w, GHOST.halo(c));
+        return dst;
+    }
+
+    /** The image a stage reading img writes: the target from {@link #into} if it fits, else its reusable output buffer. */
+    private BufferedImage output(int slot, BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        BufferedImage t = target;
+        if (t != null && t != img && t.getType() == BufferedImage.TYPE_INT_RGB && t.getWidth() == w && t.getHeight() == h) return t;
+        return buffer(slot, 1, w, h);
+    }
+
+    /** A w×h TYPE_INT_RGB image for use k of a stage: a tiled chain's last one if it is that size, else a new one. */
+    private BufferedImage buffer(int slot, int k, int w, int h) {
+        BufferedImage b = buffers[slot][k];
+        if (b == null || b.getWidth() != w || b.getHeight() != h) {
+            b = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            if (tiled) buffers[slot][k] = b;
+        }
+        return b;
+    }
+
+    /** The last n rows of above followed by rows, width values each; fewer at the top of the image. */
+    private static int[] tail(int[] above, int[] rows, int width, int n) {
+        int want = n * width;
+        if (rows.length >= want) return Arrays.copyOfRange(rows, rows.length - want, rows.length);
+        int fromAbove = above != null ? Math.min(above.length, want - rows.length) : 0;
+        int[] out = new int[fromAbove + rows.length];
+        if (fromAbove > 0) System.arraycopy(above, above.length - fromAbove, out, 0, fromAbove);
+        System.arraycopy(rows, 0, out, fromAbove, rows.length);
+        return out;
+    }
+
+    private RenderMetrics.Span begin(FxStage first) {
+        if (timedW == 0) return null;
+        String name = first == PALETTE || first == OUTLINE || first == GHOST ? first.name() : RenderMetrics.FX;
+        return RenderMetrics.begin(name, timedW, timedH, p);
+    }
+
+    private static void end(RenderMetrics.Span s) {
+        if (s != null) s.end();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // BUILT-IN STAGES
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Palette mapping with optional dither; see {@link PixelPipeline#applyPaletteWithDither}. */
+    static final FxStage PALETTE = new FxStage() {
+        @Override
+        public String name() {
+            return RenderMetrics.PALETTE;
+        }
+
+        @Override
+        public boolean onCells() {
+            return true;
+        }
+
+        @Override
+        public int halo(Context c) {
+            return 0;
+        }
+
+        @Override
+        public boolean keepsPalette() {
+            return true;
+        }
+
+        @Override
+        public int map(int rgb, int x, int y, Context c) {
+            BlockGrid g = c.grid;
+            long count = (long) g.cellWidth(x) * g.cellHeight(y);
+            return PixelPipeline.paletteColour(rgb, count, x * g.blockSize, y * g.blockSize, c.lut, c.params.dither);
+        }
+    };
+
+    /** Outline edges between cells of different colours; see {@link PixelPipeline#applyOutline}. */
+    static final FxStage OUTLINE = new FxStage() {
+        @Override
+        public String name() {
+            return RenderMetrics.OUTLINE;
+        }
+
+        @Override
+        public boolean onCells() {
+            return true;
+        }
+
+        @Override
+        public int halo(Context c) {
+            return 1;
+        }
+
+        @Override
+        public boolean keepsPalette() {
+            return true; // the outline colour is in PngExport.colours
+        }
+
+        @Override
+        public BlockGrid apply(BlockGrid grid, int[] above, Context c) {
+            return PixelPipeline.applyOutline(grid, above, c.lut.palette, c.cancelled);
+        }
+    };
+
+    /** The ghost trail, by default one copy 10 full-size pixels down and right; see {@link PixelPipeline#applyGhost}. */
+    static final FxStage GHOST = new FxStage() {
+        @Override
+        public String name() {
+            return RenderMetrics.GHOST;
+        }
+
+        @Override
+        public boolean onCells() {
+            return false;
+        }
+
+        @Override
+        public int halo(Context c) {
+            return c.params.ghostTrails * c.scaled(c.params.ghostOffset);
+        }
+
+        @Override
+        public void filter(BufferedImage src, BufferedImage dst, int y0, int y1, Context c) {
+            int off = c.scaled(c.params.ghostOffset);
+            PixelPipeline.ghostRows(PixelPipeline.pixels(src), PixelPipeline.pixels(dst), src.getWidth(), src.getHeight(), y0, y1,
+                off, off, c.params.ghostAlpha, c.params.ghostTrails);
+        }
+    };
+}
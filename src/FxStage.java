@@ -0,0 +1,101 @@
+import java.awt.image.BufferedImage;
+import java.util.function.BooleanSupplier;
+
+/**
+ * One effect in the render, run by {@link FxChain}.
+ *
+ * A stage works either on the block grid, one colour per cell before the image is
+ * expanded, or on the full-resolution pixels after it. Palette mapping and outline are
+ * cell stages and ghost a pixel stage; border and dialog are not stages, since they
+ * change the image's size or draw over it, and always come last.
+ *
+ * A stage whose {@link #halo} is 0 is point-wise: it implements {@link #map}, and runs
+ * of point-wise stages at the same level are fused into one pass that takes each
+ * colour through all of them. Any other stage is a neighbourhood stage and implements
+ * {@link #apply} (cells) or {@link #filter} (pixels), reading at most halo rows above
+ * the ones it writes and none below, with any column of those rows. That is what lets
+ * the chain split the image into row bands for the stage pool, and lets
+ * {@link StreamingPixelator} process it in strips by carrying the last halo rows of
+ * each stage's input over to the next strip.
+ *
+ * Effects beyond the built-in ones are found with {@link java.util.ServiceLoader}: a
+ * jar on the class path listing its classes in META-INF/services/FxStage adds them,
+ * and they are switched on by name (--fx on the command line, fx on the service, a
+ * button under FX in the editor). They run after the built-in stages of their level,
+ * except that cell stages run before outline, so its edges see their colours. A
+ * provider needs a public no-argument constructor and must be thread-safe: one
+ * instance serves every render, and {@link #map} and {@link #filter} are called from
+ * several threads at once.
+ */
+interface FxStage {
+
+    /** Short unique name, used to switch the stage on. */
+    String name();
+
+    /** True for a stage on the block grid, false for one on full-resolution pixels. */
+    boolean onCells();
+
+    /**
+     * Rows above its own that one output row may read, at any column; 0 for a point-wise
+     * stage. No stage reads rows below, which the strips of a streamed render do not have.
+     */
+    int halo(Context c);
+
+    /**
+     * True if the stage only ever outputs colours its input had, so a render can still be
+     * saved as an indexed PNG. Only cell stages can: a pixel stage rules indexed output out.
+     */
+    default boolean keepsPalette() {
+        return false;
+    }
+
+    /** Point-wise: the new colour of rgb, at column x and row y of the frame being processed. */
+    default int map(int rgb, int x, int y, Context c) {
+        throw new UnsupportedOperationException(name() + " is not point-wise");
+    }
+
+    /**
+     * Cell neighbourhood: grid with the stage applied. above holds up to halo cell rows
+     * that precede the grid in the image (null at its top), grid.cols cells each; the
+     * stage splits the work with {@link PixelPipeline#forEachBand} itself.
+     */
+    default BlockGrid apply(BlockGrid grid, int[] above, Context c) {
+        throw new UnsupportedOperationException(name() + " is not a cell neighbourhood stage");
+    }
+
+    /**
+     * Pixel neighbourhood: writes rows [y0, y1) of dst, reading src rows [y0 − halo, y1).
+     * Both are TYPE_INT_RGB and the same size; src is never written, and other threads
+     * fill the other rows of dst at the same time.
+     */
+    default void filter(BufferedImage src, BufferedImage dst, int y0, int y1, Context c) {
+        throw new UnsupportedOperationException(name() + " is not a pixel neighbourhood stage");
+    }
+
+    /** What a stage may need besides the pixels. */
+    final class Context {
+        final RenderParams params;
+        final PaletteLut lut;
+        /** Full-size pixels per pixel of the frame: 1, or the factor of a reduced preview. */
+        final int factor;
+        /** The cell grid at cell level (for its block geometry), null at pixel level. */
+        final BlockGrid grid;
+        /** Image row, in the frame's units, of the frame's row 0; above 0 for a strip. */
+        final int originY;
+        final BooleanSupplier cancelled;
+
+        Context(RenderParams params, PaletteLut lut, int factor, BlockGrid grid, int originY, BooleanSupplier cancelled) {
+            this.params = params;
+            this.lut = lut;
+            this.factor = factor;
+            this.grid = grid;
+            this.originY = originY;
+            this.cancelled = cancelled;
+        }
+
+        /** A distance of n full-size pixels in the frame's pixels, at least 1. */
+        int scaled(int n) {
+            return factor == 1 ? n : Math.max(1, Math.round((float) n / factor));
+        }
+    }
+}
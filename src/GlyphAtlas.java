@@ -0,0 +1,184 @@
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.text.Bidi;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-rendered outlined glyphs for one font, fill colour, outline colour and outline
+ * thickness.
+ *
+ * The old way to outline a string was to draw it (2t+1)² times at every offset and then
+ * once more in the fill colour. Here each glyph is rasterized once into two sprites:
+ * the union of its offset copies in the outline colour, and the glyph itself in the
+ * fill colour. Drawing a string is then one blit per glyph for the outlines and one per
+ * glyph for the fills, in that order, so every fill still lands on top of every
+ * neighbouring outline, just as it did with whole-string passes.
+ *
+ * With a thickness of 0 there is no outline sprite, and the atlas is just a cache of
+ * fill sprites, which the dialog's plain styles draw their text from.
+ */
+final class GlyphAtlas {
+
+    private static final int MAX_ATLASES = 32;
+    private static final Map<Key, GlyphAtlas> ATLASES = new LinkedHashMap<Key, GlyphAtlas>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, GlyphAtlas> eldest) {
+            return size() > MAX_ATLASES;
+        }
+    };
+
+    private final Key key;
+    private final Map<Integer, Glyph> glyphs = new ConcurrentHashMap<>();
+
+    private GlyphAtlas(Key key) {
+        this.key = key;
+    }
+
+    /** The shared atlas for these settings, created on first use. */
+    static GlyphAtlas get(Font font, Color fill, Color outline, int thickness, FontRenderContext frc) {
+        Key k = new Key(font, fill.getRGB(), outline.getRGB(), thickness, frc);
+        synchronized (ATLASES) {
+            return ATLASES.computeIfAbsent(k, GlyphAtlas::new);
+        }
+    }
+
+    /**
+     * Draws str with its baseline at (x, y). Falls back to drawing it (2t+1)² times when
+     * g2 is scaled or rotated (the sprites are device pixels) or str needs bidi layout.
+     */
+    void drawString(Graphics2D g2, String str, int x, int y) {
+        if (str.isEmpty()) return;
+        int type = g2.getTransform().getType();
+        if ((type & ~java.awt.geom.AffineTransform.TYPE_TRANSLATION) != 0 || Bidi.requiresBidi(str.toCharArray(), 0, str.length())) {
+            drawDirect(g2, str, x, y);
+            return;
+        }
+        char[] chars = str.toCharArray();
+        GlyphVector gv = key.font.layoutGlyphVector(key.frc, chars, 0, chars.length, Font.LAYOUT_LEFT_TO_RIGHT);
+        int n = gv.getNumGlyphs();
+        Glyph[] gl = new Glyph[n];
+        int[] gx = new int[n];
+        int[] gy = new int[n];
+        for (int i = 0; i < n; i++) {
+            gl[i] = glyph(gv.getGlyphCode(i));
+            Point2D pos = gv.getGlyphPosition(i);
+            gx[i] = x + (int) Math.round(pos.getX());
+            gy[i] = y + (int) Math.round(pos.getY());
+        }
+        for (int i = 0; i < n; i++) {
+            if (gl[i].outline != null) g2.drawImage(gl[i].outline, gx[i] + gl[i].x, gy[i] + gl[i].y, null);
+        }
+        for (int i = 0; i < n; i++) {
+            if (gl[i].fill != null) g2.drawImage(gl[i].fill, gx[i] + gl[i].x, gy[i] + gl[i].y, null);
+        }
+    }
+
+    private void drawDirect(Graphics2D g2, String str, int x, int y) {
+        Font oldFont = g2.getFont();
+        Color oldColor = g2.getColor();
+        g2.setFont(key.font);
+        g2.setColor(new Color(key.outline, true));
+        int t = key.thickness;
+        for (int dx = -t; dx <= t; dx++) {
+            for (int dy = -t; dy <= t; dy++) {
+                if (dx != 0 || dy != 0) g2.drawString(str, x + dx, y + dy);
+            }
+        }
+        g2.setColor(new Color(key.fill, true));
+        g2.drawString(str, x, y);
+        g2.setColor(oldColor);
+        g2.setFont(oldFont);
+    }
+
+    private Glyph glyph(int code) {
+        return glyphs.computeIfAbsent(code, this::rasterize);
+    }
+
+    private Glyph rasterize(int code) {
+        GlyphVector gv = key.font.createGlyphVector(key.frc, new int[] { code });
+        Rectangle b = gv.getPixelBounds(key.frc, 0, 0);
+        if (b.isEmpty()) return new Glyph(null, null, 0, 0);
+        int t = key.thickness;
+        int pad = t + 1;
+        int w = b.width + 2 * pad;
+        int h = b.height + 2 * pad;
+        // Sprite origin: pen position (0, 0) lands at (ox, oy) inside the sprite
+        int ox = pad - b.x;
+        int oy = pad - b.y;
+        BufferedImage outline = sprite(w, h);
+        Graphics2D g = outline.createGraphics();
+        hints(g);
+        g.setColor(new Color(key.outline, true));
+        for (int dx = -t; dx <= t; dx++) {
+            for (int dy = -t; dy <= t; dy++) {
+                if (dx != 0 || dy != 0) g.drawGlyphVector(gv, ox + dx, oy + dy);
+            }
+        }
+        g.dispose();
+        BufferedImage fill = sprite(w, h);
+        g = fill.createGraphics();
+        hints(g);
+        g.setColor(new Color(key.fill, true));
+        g.drawGlyphVector(gv, ox, oy);
+        g.dispose();
+        return new Glyph(t > 0 ? outline : null, fill, -ox, -oy);
+    }
+
+    private static BufferedImage sprite(int w, int h) {
+        return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    private void hints(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, key.frc.getAntiAliasingHint());
+        g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, key.frc.getFractionalMetricsHint());
+    }
+
+    /** One glyph's sprites, drawn at pen position + (x, y). Null sprites are blank glyphs (spaces). */
+    private static final class Glyph {
+        final BufferedImage outline;
+        final BufferedImage fill;
+        final int x, y;
+
+        Glyph(BufferedImage outline, BufferedImage fill, int x, int y) {
+            this.outline = outline;
+            this.fill = fill;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static final class Key {
+        final Font font;
+        final int fill;
+        final int outline;
+        final int thickness;
+        final FontRenderContext frc;
+
+        Key(Font font, int fill, int outline, int thickness, FontRenderContext frc) {
+            this.font = font;
+            this.fill = fill;
+            this.outline = outline;
+            this.thickness = thickness;
+            // Only the hints matter; the sprites are always rasterized untransformed
+            this.frc = new FontRenderContext(null, frc.getAntiAliasingHint(), frc.getFractionalMetricsHint());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return font.equals(k.font) && fill == k.fill && outline == k.outline && thickness == k.thickness && frc.equals(k.frc);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(font, fill, outline, thickness, frc);
+        }
+    }
+}
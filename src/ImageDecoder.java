@@ -0,0 +1,541 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Decodes source images to TYPE_INT_RGB, optionally subsampled at decode time.
+ *
+ * Large sources are decoded for editing at 1/2 or 1/4 resolution per axis through
+ * {@link ImageReadParam#setSourceSubsampling}, so the reader skips the other pixels
+ * instead of decoding them all and scaling afterwards. The factor never exceeds the
+ * smallest block size, so every block of every size covers whole subsampled pixels:
+ * the block grid keeps its full-resolution shape, and only the block averages are
+ * estimated from fewer pixels. Export goes back to the file for a full decode.
+ *
+ * {@link #decode} also builds the summed-area table while the reader is still decoding:
+ * an update listener feeds each finished row to a {@link SummedAreaTable.Builder}, so
+ * the table is ready when the image is, and the row is still in cache when it is summed.
+ */
+final class ImageDecoder {
+
+    /** Sources with more pixels than this are subsampled for editing. */
+    static final long SUBSAMPLE_ABOVE_PIXELS = 16L << 20;
+    /** A subsampled decode keeps at least this many pixels, however small the view it is loaded into. */
+    static final long SUBSAMPLED_MIN_PIXELS = 1L << 20;
+    /**
+     * The smallest block size offered. A source is decoded once and kept while the block
+     * size changes, so a larger factor could stop dividing the next block size picked.
+     */
+    static final int MAX_SUBSAMPLING = 4;
+
+    private ImageDecoder() {}
+
+    /**
+     * Decode subsampling for a w×h source shown in blockSize blocks over displayPixels
+     * screen pixels: the largest factor up to {@link #MAX_SUBSAMPLING} that divides
+     * blockSize and still leaves the decode at least as many pixels as it covers on
+     * screen, so the view is never upscaled; 1 (full resolution) for sources of up to
+     * {@link #SUBSAMPLE_ABOVE_PIXELS}.
+     */
+    static int subsamplingFor(int w, int h, int blockSize, long displayPixels) {
+        long pixels = (long) w * h;
+        if (pixels <= SUBSAMPLE_ABOVE_PIXELS) return 1;
+        long keep = Math.max(SUBSAMPLED_MIN_PIXELS, displayPixels);
+        int s = MAX_SUBSAMPLING;
+        while (s > 1 && (blockSize % s != 0 || pixels / ((long) s * s) < keep)) s >>= 1;
+        return s;
+    }
+
+    /** Decodes every subsampling-th pixel of every subsampling-th row of file. */
+    static BufferedImage read(File file, int subsampling) throws IOException {
+        return decode(file, subsampling, false, PixelPipeline.NEVER_CANCELLED, pct -> {}).image;
+    }
+
+    /** A decoded source and, if it could be built alongside, its summed-area table. */
+    static final class Decoded {
+        final BufferedImage image; // TYPE_INT_RGB
+        final SummedAreaTable sat; // null if not requested, out of memory, or the format arrives out of order
+
+        Decoded(BufferedImage image, SummedAreaTable sat) {
+            this.image = image;
+            this.sat = sat;
+        }
+    }
+
+    /**
+     * Decodes like {@link #read} and, if withSat, builds the summed-area table row by row
+     * as the reader delivers them. progress receives the reader's percentage complete.
+     * Polls cancelled from the reader's callbacks, aborts the read and throws
+     * CancellationException if it fires.
+     */
+    static Decoded decode(File file, int subsampling, boolean withSat, BooleanSupplier cancelled, IntConsumer progress) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) throw new IOException("Cannot open " + file.getName());
+            return decode(iis, subsampling, withSat, Long.MAX_VALUE, cancelled, progress);
+        }
+    }
+
+    /**
+     * Decodes an image held in memory, such as an upload, at full resolution. Throws
+     * {@link TooLargeException}, before decoding any pixels, if it has more than maxPixels.
+     */
+    static Decoded decode(byte[] data, long maxPixels, BooleanSupplier cancelled) throws IOException {
+        try (ImageInputStream iis = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+            return decode(iis, 1, false, maxPixels, cancelled, pct -> {});
+        }
+    }
+
+    /**
+     * Decodes file at full resolution into an off-heap {@link PackedRaster}, or returns
+     * null if the image does not fit what is left of the off-heap budget. Plain RGB JPEG
+     * and PNG files, which {@link #decode} gets as TYPE_INT_RGB or as 3BYTE_BGR and
+     * reorders, are written into the raster by the reader itself, so no full-size image
+     * is ever on the heap. Other sources (palette, grey, alpha, and formats whose
+     * readers only write into their own raster types) are read in strips of about
+     * stripPixels pixels, each converted like {@link #decode} converts a whole image, and
+     * taken from a single pass with {@link #readStrips} if the reader is
+     * {@link #sequential}. The result has the same pixels as {@link #read} at
+     * subsampling 1. Polls cancelled from the reader's callbacks and throws
+     * CancellationException if it fires.
+     */
+    static PackedRaster decodePacked(File file, int stripPixels, BooleanSupplier cancelled, IntConsumer progress) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) throw new IOException("Cannot open " + file.getName());
+            Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+            if (!it.hasNext()) throw new IOException("Unsupported format");
+            ImageReader reader = it.next();
+            PackedRaster raster = null;
+            boolean ok = false;
+            try {
+                reader.setInput(iis, false, true); // strips may seek back
+                int w = reader.getWidth(0);
+                int h = reader.getHeight(0);
+                if (w <= 0 || h <= 0) throw new IOException("Invalid image dimensions");
+                raster = PackedRaster.allocate(w, h);
+                if (raster == null) return null;
+                ImageReadParam param = reader.getDefaultReadParam();
+                boolean direct = plainRgb(reader) && (long) w * h <= Integer.MAX_VALUE;
+                RowListener rows = new RowListener(reader, null, cancelled, direct ? progress : pct -> {});
+                reader.addIIOReadProgressListener(rows);
+                int stripRows = Math.max(1, stripPixels / w);
+                if (direct) {
+                    param.setDestination(raster.asImage());
+                    reader.read(0, param);
+                } else if (sequential(reader)) {
+                    PackedRaster into = raster;
+                    readStrips(reader, stripRows, cancelled, (y0, strip) -> {
+                        into.setRows(y0, strip.getHeight(), PixelPipeline.pixels(strip), 0);
+                        progress.accept((int) ((long) (y0 + strip.getHeight()) * 100 / h));
+                    });
+                } else {
+                    for (int y0 = 0; y0 < h && !rows.aborted; y0 += stripRows) {
+                        PixelPipeline.checkCancelled(cancelled);
+                        int sh = Math.min(stripRows, h - y0);
+                        param.setSourceRegion(new java.awt.Rectangle(0, y0, w, sh));
+                        BufferedImage strip = PixelPipeline.toIntRgb(reader.read(0, param));
+                        raster.setRows(y0, sh, PixelPipeline.pixels(strip), 0);
+                        progress.accept((int) ((long) (y0 + sh) * 100 / h));
+                    }
+                }
+                if (rows.aborted) throw new CancellationException();
+                ok = true;
+                return raster;
+            } finally {
+                reader.dispose();
+                if (!ok && raster != null) raster.close();
+            }
+        }
+    }
+
+    /** A source over the pixel limit it was decoded with, found from its header alone. */
+    static final class TooLargeException extends IllegalArgumentException {
+        TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /** Receives the rows of a source in order, a strip at a time. */
+    interface StripSink {
+        /** Rows [y0, y0 + strip height) as TYPE_INT_RGB; strip may be overwritten once this returns. */
+        void accept(int y0, BufferedImage strip) throws IOException;
+    }
+
+    /**
+     * True if reader, already given its input, decodes the first image top to bottom in
+     * one pass: a baseline JPEG or a non-interlaced PNG. Their readers cannot seek to a
+     * row, so reading one in source regions decodes it from the start for every region;
+     * {@link #readStrips} takes the rows from a single pass instead.
+     */
+    static boolean sequential(ImageReader reader) throws IOException {
+        String format = RowListener.safeFormatName(reader);
+        String node, attribute, interlaced;
+        if (format.equals("jpeg")) {
+            node = "sof";
+            attribute = "process";
+            interlaced = "2"; // progressive
+        } else if (format.equals("png")) {
+            node = "IHDR";
+            attribute = "interlaceMethod";
+            interlaced = "adam7";
+        } else {
+            return false;
+        }
+        IIOMetadata meta = reader.getImageMetadata(0);
+        if (meta == null || meta.getNativeMetadataFormatName() == null) return false;
+        NodeList nodes = ((Element) meta.getAsTree(meta.getNativeMetadataFormatName())).getElementsByTagName(node);
+        if (nodes.getLength() == 0 || interlaced.equals(((Element) nodes.item(0)).getAttribute(attribute))) return false;
+        return StripFeed.stride(stripType(reader).getSampleModel(1, 1)) > 0;
+    }
+
+    /**
+     * Decodes the first image of a {@link #sequential} reader in one pass and hands it to
+     * sink in strips of stripRows rows (the last may be shorter), each as soon as its last
+     * row is decoded. Only one strip of the reader's own pixel type is held at a time; its
+     * rows are converted like {@link #decode} converts a whole image. Polls cancelled from
+     * the reader's callbacks and throws CancellationException if it fires.
+     */
+    static void readStrips(ImageReader reader, int stripRows, BooleanSupplier cancelled, StripSink sink) throws IOException {
+        int w = reader.getWidth(0);
+        int h = reader.getHeight(0);
+        StripFeed feed = new StripFeed(stripType(reader), w, h, stripRows, sink);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(feed.image);
+        RowListener rows = new RowListener(reader, null, cancelled, pct -> {});
+        reader.addIIOReadProgressListener(rows);
+        reader.addIIOReadUpdateListener(feed);
+        try {
+            reader.read(0, param);
+        } catch (java.io.UncheckedIOException e) {
+            throw e.getCause(); // from the sink
+        } finally {
+            reader.removeIIOReadProgressListener(rows);
+            reader.removeIIOReadUpdateListener(feed);
+        }
+        if (rows.aborted) throw new CancellationException();
+        if (feed.rows != h) throw new IOException("Image data ended after " + feed.rows + " of " + h + " rows");
+    }
+
+    /**
+     * The pixel type a strip is decoded in: TYPE_INT_RGB for a {@link #plainRgb} source,
+     * as {@link #decodePacked} decodes one, otherwise the reader's default type.
+     */
+    private static ImageTypeSpecifier stripType(ImageReader reader) throws IOException {
+        return plainRgb(reader) ? ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB) : reader.getImageTypes(0).next();
+    }
+
+    /**
+     * True if reader is the JPEG or PNG reader and the first image decodes to 8-bit RGB
+     * with nothing to convert: it offers TYPE_INT_RGB, or decodes to 3BYTE_BGR by default.
+     */
+    private static boolean plainRgb(ImageReader reader) throws IOException {
+        String format = RowListener.safeFormatName(reader);
+        if (!format.equals("jpeg") && !format.equals("png")) return false;
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        for (boolean first = true; types.hasNext(); first = false) {
+            int type = types.next().getBufferedImageType();
+            if (type == BufferedImage.TYPE_INT_RGB || first && type == BufferedImage.TYPE_3BYTE_BGR) return true;
+        }
+        return false;
+    }
+
+    private static Decoded decode(ImageInputStream iis, int subsampling, boolean withSat, long maxPixels,
+                                  BooleanSupplier cancelled, IntConsumer progress) throws IOException {
+        Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+        if (!it.hasNext()) throw new IOException("Unsupported format");
+        ImageReader reader = it.next();
+        try {
+            reader.setInput(iis, true, true);
+            int w = reader.getWidth(0);
+            int h = reader.getHeight(0);
+            if (w <= 0 || h <= 0) throw new IOException("Invalid image dimensions");
+            if ((long) w * h > maxPixels) {
+                throw new TooLargeException("Image is " + w + "x" + h + ", over the limit of " + maxPixels + " pixels");
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (subsampling > 1) param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            // Decode straight into TYPE_INT_RGB when the reader offers it, which saves
+            // converting the rows afterwards
+            for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+                ImageTypeSpecifier type = types.next();
+                if (type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB) {
+                    param.setDestinationType(type);
+                    break;
+                }
+            }
+            int outW = (w + subsampling - 1) / subsampling;
+            int outH = (h + subsampling - 1) / subsampling;
+            RowListener rows = new RowListener(reader, withSat ? SummedAreaTable.builder(outW, outH) : null, cancelled, progress);
+            reader.addIIOReadProgressListener(rows);
+            reader.addIIOReadUpdateListener(rows);
+            BufferedImage img = reader.read(0, param);
+            if (rows.aborted) throw new CancellationException();
+            SummedAreaTable sat = rows.sat != null ? rows.sat.finish() : null;
+            // A complete table means every row was also copied into rows.rgb on the way
+            return new Decoded(sat != null ? rows.rgb : PixelPipeline.toIntRgb(img), sat);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * The destination of {@link #readStrips}: an image the full size of the source whose
+     * buffer holds only the current strip. Every standard sample model puts row y at
+     * element y × stride, so the buffer subtracts the strip's first element from every
+     * index it is given (in int arithmetic, which stays exact even if the full-size index
+     * wraps past Integer.MAX_VALUE). When the reader reports the strip's last row, the
+     * strip goes to the sink and the buffer moves down to the next one; a row reported
+     * out of order fails the read rather than hand on rows that were never decoded.
+     */
+    private static final class StripFeed implements IIOReadUpdateListener {
+        final BufferedImage image;
+        private final ImageTypeSpecifier type;
+        private final int width, height, stripRows, stride;
+        private final StripSink sink;
+        private BufferedImage strip;
+        private DataBuffer stripData;
+        private int y0;
+        private int base;
+        int rows; // rows decoded so far
+
+        StripFeed(ImageTypeSpecifier type, int width, int height, int stripRows, StripSink sink) {
+            this.type = type;
+            this.width = width;
+            this.height = height;
+            this.stripRows = stripRows;
+            this.sink = sink;
+            SampleModel sm = type.getBufferedImageType() == BufferedImage.TYPE_INT_RGB
+                ? new RgbRows(width, height, ((java.awt.image.DirectColorModel) type.getColorModel()).getMasks())
+                : type.getSampleModel(width, height);
+            this.stride = stride(sm);
+            nextStrip(Math.min(stripRows, height));
+            WritableRaster r = Raster.createWritableRaster(sm, new View(), null);
+            ColorModel cm = type.getColorModel();
+            this.image = new BufferedImage(cm, r, cm.isAlphaPremultiplied(), null);
+        }
+
+        /** Elements per row of a standard sample model; 0 for any other kind. */
+        static int stride(SampleModel sm) {
+            if (sm instanceof ComponentSampleModel) return ((ComponentSampleModel) sm).getScanlineStride();
+            if (sm instanceof SinglePixelPackedSampleModel) return ((SinglePixelPackedSampleModel) sm).getScanlineStride();
+            if (sm instanceof MultiPixelPackedSampleModel) return ((MultiPixelPackedSampleModel) sm).getScanlineStride();
+            return 0;
+        }
+
+        private void nextStrip(int n) {
+            if (strip == null || strip.getHeight() != n) {
+                strip = type.createBufferedImage(width, n);
+                stripData = strip.getRaster().getDataBuffer();
+            }
+            base = y0 * stride;
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            if (minX != 0 || width != this.width || periodX != 1 || periodY != 1 || minY != rows) {
+                throw new java.io.UncheckedIOException(new IOException("Rows arrived out of order at row " + minY));
+            }
+            rows += height;
+            int sh = strip.getHeight();
+            if (rows < y0 + sh) return;
+            try {
+                sink.accept(y0, PixelPipeline.toIntRgb(strip));
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+            y0 += sh;
+            if (y0 < this.height) nextStrip(Math.min(stripRows, this.height - y0));
+        }
+
+        /**
+         * TYPE_INT_RGB's layout, with the two sample writes the JPEG and PNG readers use
+         * (a row of R, G, B samples, a pixel of them) done straight into the strip, as
+         * {@link PackedRaster}'s view does; the default would be a call per sample.
+         */
+        private final class RgbRows extends SinglePixelPackedSampleModel {
+            RgbRows(int w, int h, int[] masks) {
+                super(DataBuffer.TYPE_INT, w, h, masks);
+            }
+
+            @Override
+            public void setPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+                if (x < 0 || y < 0 || x + w > width || y + h > height) throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+                int[] px = PixelPipeline.pixels(strip);
+                for (int r = 0, s = 0; r < h; r++) {
+                    for (int i = (y + r - y0) * width + x, end = i + w; i < end; i++, s += 3) {
+                        px[i] = iArray[s] << 16 | iArray[s + 1] << 8 | iArray[s + 2];
+                    }
+                }
+            }
+
+            @Override
+            public void setPixel(int x, int y, int[] iArray, DataBuffer data) {
+                if (x < 0 || y < 0 || x >= width || y >= height) throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+                PixelPipeline.pixels(strip)[(y - y0) * width + x] = iArray[0] << 16 | iArray[1] << 8 | iArray[2];
+            }
+        }
+
+        /** Element i of the full-size image, which lies in the current strip. */
+        private final class View extends DataBuffer {
+            View() {
+                super(stripData.getDataType(), stripData.getSize(), stripData.getNumBanks());
+            }
+
+            @Override
+            public int getElem(int bank, int i) {
+                return stripData.getElem(bank, i - base);
+            }
+
+            @Override
+            public void setElem(int bank, int i, int val) {
+                stripData.setElem(bank, i - base, val);
+            }
+        }
+
+        @Override public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                          int minX, int minY, int periodX, int periodY, int[] bands) {}
+        @Override public void passComplete(ImageReader source, BufferedImage theImage) {}
+        @Override public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass, int maxPass,
+                                                   int minX, int minY, int periodX, int periodY, int[] bands) {}
+        @Override public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width, int height,
+                                              int periodX, int periodY, int[] bands) {}
+        @Override public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {}
+    }
+
+    /**
+     * Reader callbacks: progress, cancellation and the row-by-row table. Each finished
+     * row is converted to TYPE_INT_RGB (unless the reader already decodes into it) and
+     * summed in one pass while it is still in cache. The table and copy are dropped, to
+     * be built after decoding instead, as soon as rows arrive in any other order than
+     * one full row at a time from the top (interlaced PNG, progressive JPEG), from a
+     * reader whose updates are not row-exact, or in a type other than INT_RGB or
+     * 3BYTE_BGR, where a plain byte copy could disagree with the TYPE_INT_RGB conversion.
+     */
+    private static final class RowListener implements IIOReadProgressListener, IIOReadUpdateListener {
+        private final ImageReader reader;
+        private final BooleanSupplier cancelled;
+        private final IntConsumer progress;
+        private SummedAreaTable.Builder sat;
+        BufferedImage rgb; // TYPE_INT_RGB rows so far, complete when sat is
+        private int lastPct = -1;
+        volatile boolean aborted;
+
+        RowListener(ImageReader reader, SummedAreaTable.Builder sat, BooleanSupplier cancelled, IntConsumer progress) {
+            this.reader = reader;
+            String format = safeFormatName(reader);
+            // The BMP and GIF readers report update rectangles that do not match the rows written
+            this.sat = "jpeg".equals(format) || "png".equals(format) ? sat : null;
+            this.cancelled = cancelled;
+            this.progress = progress;
+        }
+
+        private static String safeFormatName(ImageReader reader) {
+            try {
+                return reader.getFormatName().toLowerCase(java.util.Locale.ROOT);
+            } catch (IOException e) {
+                return "";
+            }
+        }
+
+        private void poll() {
+            if (!aborted && cancelled.getAsBoolean()) {
+                aborted = true;
+                reader.abort();
+            }
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+            poll();
+            int pct = (int) percentageDone;
+            if (pct != lastPct) {
+                lastPct = pct;
+                progress.accept(pct);
+            }
+        }
+
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage theImage, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            poll();
+            if (sat == null || aborted) return;
+            int w = theImage.getWidth();
+            int type = theImage.getType();
+            if (minX != 0 || width != w || periodX != 1 || periodY != 1 || minY != sat.rows()
+                || !(type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_3BYTE_BGR && packedBgr(theImage))) {
+                sat = null;
+                rgb = null;
+                return;
+            }
+            if (rgb == null) {
+                rgb = type == BufferedImage.TYPE_INT_RGB ? theImage
+                    : new BufferedImage(w, theImage.getHeight(), BufferedImage.TYPE_INT_RGB);
+            }
+            int[] px = PixelPipeline.pixels(rgb);
+            for (int y = minY; y < minY + height; y++) {
+                int row = y * w;
+                if (rgb != theImage) {
+                    byte[] bgr = ((DataBufferByte) theImage.getRaster().getDataBuffer()).getData();
+                    for (int x = 0, i = row * 3; x < w; x++, i += 3) {
+                        px[row + x] = (bgr[i + 2] & 0xFF) << 16 | (bgr[i + 1] & 0xFF) << 8 | (bgr[i] & 0xFF);
+                    }
+                }
+                sat.addRow(px, row);
+            }
+        }
+
+        /** True if img's bytes are B G R per pixel with rows packed back to back from index 0. */
+        private static boolean packedBgr(BufferedImage img) {
+            java.awt.image.WritableRaster r = img.getRaster();
+            return r.getDataBuffer().getOffset() == 0 && r.getSampleModelTranslateX() == 0 && r.getSampleModelTranslateY() == 0
+                && r.getSampleModel() instanceof java.awt.image.ComponentSampleModel
+                && ((java.awt.image.ComponentSampleModel) r.getSampleModel()).getScanlineStride() == 3 * img.getWidth();
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+            aborted = true;
+        }
+
+        @Override public void sequenceStarted(ImageReader source, int minIndex) {}
+        @Override public void sequenceComplete(ImageReader source) {}
+        @Override public void imageStarted(ImageReader source, int imageIndex) {}
+        @Override public void imageComplete(ImageReader source) {}
+        @Override public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {}
+        @Override public void thumbnailProgress(ImageReader source, float percentageDone) {}
+        @Override public void thumbnailComplete(ImageReader source) {}
+        @Override public void passStarted(ImageReader source, BufferedImage theImage, int pass, int minPass, int maxPass,
+                                          int minX, int minY, int periodX, int periodY, int[] bands) {}
+        @Override public void passComplete(ImageReader source, BufferedImage theImage) {}
+        @Override public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail, int pass, int minPass, int maxPass,
+                                                   int minX, int minY, int periodX, int periodY, int[] bands) {}
+        @Override public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail, int minX, int minY, int width, int height,
+                                              int periodX, int periodY, int[] bands) {}
+        @Override public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {}
+    }
+}
@@ -0,0 +1,220 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An RGB image held off the Java heap, three bytes per pixel, in direct ByteBuffers.
+ *
+ * A TYPE_INT_RGB image costs four heap bytes per pixel and lives in one array the
+ * collector has to find room for; a raster here costs three bytes of native memory
+ * that the collector never scans or moves. Rows are stored back to back in chunks of
+ * whole rows under 1 GB each, so the size is not capped by a ByteBuffer's int index.
+ * Pixels go in and out a band of rows at a time as packed 0xRRGGBB ints, which is
+ * how {@link StreamingPixelator} consumes them.
+ *
+ * All rasters draw on one process-wide budget, set with -Dpixelator.offheap.mb or
+ * {@link #setBudget}; none is allocated while the budget is zero, which is the default.
+ * {@link #allocate} returns null rather than exceed it, and callers fall back to
+ * reading the file in tiles. Direct memory is also capped by the JVM
+ * (-XX:MaxDirectMemorySize, the heap size unless set); an allocation it refuses is
+ * treated the same way.
+ */
+final class PackedRaster implements AutoCloseable {
+
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private static volatile long budget = Long.getLong("pixelator.offheap.mb", 0L) << 20;
+    private static final AtomicLong reserved = new AtomicLong();
+
+    final int width;
+    final int height;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] chunks;
+    private final long bytes;
+    private boolean closed;
+
+    private PackedRaster(int width, int height, ByteBuffer[] chunks, int rowsPerChunk, long bytes) {
+        this.width = width;
+        this.height = height;
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.bytes = bytes;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  BUDGET
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    /** True if off-heap rasters are in use at all, that is the budget is above zero. */
+    static boolean enabled() {
+        return budget > 0;
+    }
+
+    /** Sets the process-wide budget in bytes; 0 turns off-heap rasters off. Rasters already allocated keep theirs. */
+    static void setBudget(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Budget must not be negative");
+        budget = bytes;
+    }
+
+    /** Bytes held by open rasters. */
+    static long reserved() {
+        return reserved.get();
+    }
+
+    private static boolean reserve(long bytes) {
+        for (long used = reserved.get(); ; used = reserved.get()) {
+            if (used + bytes > budget) return false;
+            if (reserved.compareAndSet(used, used + bytes)) return true;
+        }
+    }
+
+    /**
+     * A zeroed w×h raster, or null if it would take the rasters in use past the budget
+     * or the JVM has no direct memory left for it.
+     */
+    static PackedRaster allocate(int w, int h) {
+        if (w <= 0 || h <= 0) throw new IllegalArgumentException("Invalid raster size " + w + "x" + h);
+        long rowBytes = 3L * w;
+        if (rowBytes > CHUNK_BYTES) return null;
+        long bytes = rowBytes * h;
+        if (!reserve(bytes)) return null;
+        int rowsPerChunk = (int) Math.min(h, CHUNK_BYTES / rowBytes);
+        ByteBuffer[] chunks = new ByteBuffer[(h + rowsPerChunk - 1) / rowsPerChunk];
+        try {
+            for (int i = 0; i < chunks.length; i++) {
+                int rows = Math.min(rowsPerChunk, h - i * rowsPerChunk);
+                chunks[i] = ByteBuffer.allocateDirect((int) (rows * rowBytes));
+            }
+        } catch (OutOfMemoryError e) {
+            // Past -XX:MaxDirectMemorySize; the chunks already made go with the next GC
+            reserved.addAndGet(-bytes);
+            return null;
+        }
+        return new PackedRaster(w, h, chunks, rowsPerChunk, bytes);
+    }
+
+    /** Returns this raster's bytes to the budget. The memory itself is freed once the raster is unreachable. */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        reserved.addAndGet(-bytes);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  PIXELS
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    /** Copies rows [y, y + n) into dst from off as packed 0xRRGGBB, width ints per row. */
+    void getRows(int y, int n, int[] dst, int off) {
+        byte[] row = new byte[3 * width];
+        for (int r = y; r < y + n; r++, off += width) {
+            rowBuffer(r).get(row);
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                dst[off + x] = (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+            }
+        }
+    }
+
+    /** Stores rows [y, y + n) from packed 0xRRGGBB ints in src from off, width per row. */
+    void setRows(int y, int n, int[] src, int off) {
+        byte[] row = new byte[3 * width];
+        for (int r = y; r < y + n; r++, off += width) {
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                int rgb = src[off + x];
+                row[i] = (byte) (rgb >> 16);
+                row[i + 1] = (byte) (rgb >> 8);
+                row[i + 2] = (byte) rgb;
+            }
+            rowBuffer(r).put(row);
+        }
+    }
+
+    /** Rows [y, y + n) as a new TYPE_INT_RGB image. */
+    BufferedImage strip(int y, int n) {
+        BufferedImage img = new BufferedImage(width, n, BufferedImage.TYPE_INT_RGB);
+        getRows(y, n, PixelPipeline.pixels(img), 0);
+        return img;
+    }
+
+    /** A view of row y positioned at its first byte, independent of other threads' views. */
+    private ByteBuffer rowBuffer(int y) {
+        ByteBuffer b = chunks[y / rowsPerChunk].duplicate();
+        b.position((y % rowsPerChunk) * 3 * width);
+        return b;
+    }
+
+    /**
+     * The raster as a BufferedImage with TYPE_INT_RGB's colour model, for an image reader
+     * to decode into (ImageReadParam.setDestination). The JPEG reader stores a row at a
+     * time and the PNG reader a pixel at a time, both as R, G, B samples, which go
+     * straight into the buffer; any other access is a call per pixel through
+     * {@link DataBuffer}. The pipeline reads with {@link #getRows} instead. Only for
+     * rasters of at most Integer.MAX_VALUE pixels, a DataBuffer's limit.
+     */
+    BufferedImage asImage() {
+        if ((long) width * height > Integer.MAX_VALUE) throw new IllegalStateException("Raster too large for a BufferedImage view");
+        DirectColorModel cm = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        WritableRaster r = Raster.createWritableRaster(new Samples(width, height, cm.getMasks()), new View(), null);
+        return new BufferedImage(cm, r, false, null);
+    }
+
+    /** The view's layout, with the two sample writes image readers use done in bulk. */
+    private final class Samples extends SinglePixelPackedSampleModel {
+        Samples(int w, int h, int[] masks) {
+            super(DataBuffer.TYPE_INT, w, h, masks);
+        }
+
+        @Override
+        public void setPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+            if (x < 0 || y < 0 || x + w > width || y + h > height) throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+            byte[] row = new byte[3 * w];
+            for (int r = 0, s = 0; r < h; r++) {
+                for (int i = 0; i < row.length; i++) row[i] = (byte) iArray[s++];
+                ByteBuffer b = rowBuffer(y + r);
+                b.position(b.position() + 3 * x);
+                b.put(row);
+            }
+        }
+
+        @Override
+        public void setPixel(int x, int y, int[] iArray, DataBuffer data) {
+            if (x < 0 || y < 0 || x >= width || y >= height) throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+            ByteBuffer b = chunks[y / rowsPerChunk];
+            int o = ((y % rowsPerChunk) * width + x) * 3;
+            b.put(o, (byte) iArray[0]);
+            b.put(o + 1, (byte) iArray[1]);
+            b.put(o + 2, (byte) iArray[2]);
+        }
+    }
+
+    /** Element i is pixel i in row-major order, as 0xRRGGBB. */
+    private final class View extends DataBuffer {
+        private final int pixelsPerChunk = rowsPerChunk * width;
+
+        View() {
+            super(TYPE_INT, width * height);
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            ByteBuffer b = chunks[i / pixelsPerChunk];
+            int o = i % pixelsPerChunk * 3;
+            return (b.get(o) & 0xFF) << 16 | (b.get(o + 1) & 0xFF) << 8 | (b.get(o + 2) & 0xFF);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            ByteBuffer b = chunks[i / pixelsPerChunk];
+            int o = i % pixelsPerChunk * 3;
+            b.put(o, (byte) (val >> 16));
+            b.put(o + 1, (byte) (val >> 8));
+            b.put(o + 2, (byte) val);
+        }
+    }
+}
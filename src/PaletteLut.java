@@ -0,0 +1,108 @@
+/**
+ * Nearest-colour lookup for one palette: a 6-bit-per-channel RGB cube.
+ *
+ * A cube cell covers a 4×4×4 box of colour space. When building, every palette entry's
+ * redmean distance is bounded from below and above over the whole box. If one entry's
+ * worst case beats every other entry's best case by a safe margin, the cell stores that
+ * index, since {@link PixelPipeline#findNearestRedmean} would return it for any colour in
+ * the box. Cells near a decision boundary instead store the (few) entries that could
+ * still win, and the exact metric is evaluated over just those, in palette order, so
+ * answers and tie-breaks stay identical to the plain linear search.
+ */
+final class PaletteLut {
+
+    private static final int BITS = 6;
+    private static final int SHIFT = 8 - BITS;
+    private static final int SIDE = 1 << BITS;
+    private static final int STEP = 1 << SHIFT;
+    /** Candidate sets are kept as bit masks, so masks are only used up to this many colours. */
+    private static final int MAX_MASK_COLOURS = 31;
+    /** Relative margin so rounding in the double-precision metric cannot flip a decision. */
+    private static final double MARGIN = 1e-9;
+
+    final int[] palette;
+    /** idx >= 0: the nearest entry for the whole cell; < 0: ~(bit mask of candidate entries). */
+    private final int[] cube;
+
+    PaletteLut(int[] palette) {
+        if (palette.length == 0) throw new IllegalArgumentException("Palette must not be empty");
+        this.palette = palette.clone();
+        this.cube = new int[SIDE * SIDE * SIDE];
+        build();
+    }
+
+    /** Index of the palette entry nearest to (r, g, b), each in [0, 255]; same answer as the linear search. */
+    int nearest(float r, float g, float b) {
+        int cell = ((((int) r >> SHIFT) * SIDE) + ((int) g >> SHIFT)) * SIDE + ((int) b >> SHIFT);
+        int v = cube[cell];
+        if (v >= 0) return v;
+        if (palette.length > MAX_MASK_COLOURS) return PixelPipeline.findNearestRedmean(r, g, b, palette);
+        int mask = ~v;
+        int best = 0;
+        double bestDist = Double.MAX_VALUE;
+        while (mask != 0) {
+            int i = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            double dist = PixelPipeline.redmeanDistance(r, g, b, palette[i]);
+            if (dist < bestDist) {
+                bestDist = dist;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void build() {
+        int n = palette.length;
+        double[] lo = new double[n];
+        double[] hi = new double[n];
+        for (int ri = 0; ri < SIDE; ri++) {
+            for (int gi = 0; gi < SIDE; gi++) {
+                for (int bi = 0; bi < SIDE; bi++) {
+                    int best = 0;
+                    for (int i = 0; i < n; i++) {
+                        bounds(palette[i], ri * STEP, gi * STEP, bi * STEP, lo, hi, i);
+                        if (hi[i] < hi[best]) best = i;
+                    }
+                    double limit = hi[best] * (1 + MARGIN) + MARGIN;
+                    int candidates = 0;
+                    boolean unique = true;
+                    for (int i = 0; i < n; i++) {
+                        if (lo[i] <= limit) {
+                            if (i != best) unique = false;
+                            if (i < MAX_MASK_COLOURS) candidates |= 1 << i;
+                        }
+                    }
+                    int idx = unique ? best : ~candidates;
+                    cube[(ri * SIDE + gi) * SIDE + bi] = idx;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lower and upper bound of the squared redmean distance from colour c to any point of
+     * the box [r0, r0+STEP] × [g0, g0+STEP] × [b0, b0+STEP]. Every factor of the metric is
+     * non-negative there, so bounding each factor separately is enough.
+     */
+    private static void bounds(int c, int r0, int g0, int b0, double[] lo, double[] hi, int i) {
+        int cr = (c >> 16) & 0xFF, cg = (c >> 8) & 0xFF, cb = c & 0xFF;
+        int r1 = r0 + STEP, g1 = g0 + STEP, b1 = b0 + STEP;
+        double rBarLo = (r0 + cr) / 2.0, rBarHi = (r1 + cr) / 2.0;
+        double kRLo = 2.0 + rBarLo / 256.0, kRHi = 2.0 + rBarHi / 256.0;
+        double kBLo = 2.0 + (255.0 - rBarHi) / 256.0, kBHi = 2.0 + (255.0 - rBarLo) / 256.0;
+        lo[i] = kRLo * minSq(r0 - cr, r1 - cr) + 4.0 * minSq(g0 - cg, g1 - cg) + kBLo * minSq(b0 - cb, b1 - cb);
+        hi[i] = kRHi * maxSq(r0 - cr, r1 - cr) + 4.0 * maxSq(g0 - cg, g1 - cg) + kBHi * maxSq(b0 - cb, b1 - cb);
+    }
+
+    private static double minSq(int d0, int d1) {
+        if (d0 <= 0 && d1 >= 0) return 0;
+        int m = Math.min(Math.abs(d0), Math.abs(d1));
+        return (double) m * m;
+    }
+
+    private static double maxSq(int d0, int d1) {
+        int m = Math.max(Math.abs(d0), Math.abs(d1));
+        return (double) m * m;
+    }
+}
@@ -0,0 +1,127 @@
+import java.awt.Color;
+
+/**
+ * The built-in palettes, shared by the UI and the headless pipeline.
+ *
+ * Each palette is kept both as Color[] (for the swatch buttons) and as packed
+ * 0xRRGGBB ints (for {@link PixelPipeline}); the nearest-colour lookup table of
+ * each palette is built on first use and then reused for every render.
+ */
+final class Palettes {
+
+    private static final Color[] PALETTE_FRUTIGER_AERO = {
+        new Color(0x1a, 0x3d, 0x5c), new Color(0x2d, 0x6b, 0x9a), new Color(0x4a, 0x9f, 0xd4),
+        new Color(0x7e, 0xb8, 0xda), new Color(0xa8, 0xcf, 0xe8), new Color(0xd0, 0xe8, 0xf5),
+        new Color(0xec, 0xf4, 0xfa), new Color(0xff, 0xff, 0xff),
+        new Color(0x2e, 0xcc, 0x71), new Color(0x34, 0x98, 0xdb), new Color(0x9b, 0x59, 0xb6),
+        new Color(0xe7, 0x4c, 0x3c), new Color(0xf3, 0x9c, 0x12), new Color(0x1a, 0xbc, 0x9c),
+        new Color(0xfd, 0xad, 0xb9), new Color(0xb8, 0xe0, 0xf0),
+    };
+
+    private static final Color[] PALETTE_PICO8 = {
+        new Color(0x00, 0x00, 0x00), new Color(0x1d, 0x2b, 0x53), new Color(0x7e, 0x25, 0x53),
+        new Color(0x00, 0x87, 0x51), new Color(0xab, 0x52, 0x36), new Color(0x5f, 0x57, 0x4f),
+        new Color(0xc2, 0xc3, 0xc7), new Color(0xff, 0xf1, 0xe8), new Color(0xff, 0x00, 0x4d),
+        new Color(0xff, 0xa3, 0x00), new Color(0xff, 0xec, 0x27), new Color(0x00, 0xe4, 0x36),
+        new Color(0x29, 0xad, 0xff), new Color(0x83, 0x76, 0x9c), new Color(0xff, 0x77, 0xa8),
+        new Color(0xff, 0xcc, 0xaa),
+    };
+
+    private static final Color[] PALETTE_CGA = {
+        new Color(0x00, 0x00, 0x00), new Color(0x55, 0x55, 0x55), new Color(0xaa, 0xaa, 0xaa),
+        new Color(0xff, 0xff, 0xff), new Color(0x00, 0x00, 0xaa), new Color(0x55, 0x55, 0xff),
+        new Color(0x00, 0xaa, 0x00), new Color(0x55, 0xff, 0x55), new Color(0x00, 0xaa, 0xaa),
+        new Color(0x55, 0xff, 0xff), new Color(0xaa, 0x00, 0x00), new Color(0xff, 0x55, 0x55),
+        new Color(0xaa, 0x00, 0xaa), new Color(0xff, 0x55, 0xff), new Color(0xaa, 0x55, 0x00),
+        new Color(0xff, 0xff, 0x55),
+    };
+
+    private static final Color[] PALETTE_C64 = {
+        new Color(0x00, 0x00, 0x00), new Color(0xff, 0xff, 0xff), new Color(0x88, 0x39, 0x32),
+        new Color(0x67, 0xb6, 0xbd), new Color(0x8b, 0x3f, 0x96), new Color(0x55, 0xa0, 0x49),
+        new Color(0x40, 0x31, 0x8d), new Color(0xbf, 0xce, 0x72), new Color(0x8b, 0x54, 0x29),
+        new Color(0x57, 0x42, 0x00), new Color(0xb8, 0x69, 0x62), new Color(0x50, 0x50, 0x50),
+        new Color(0x78, 0x78, 0x78), new Color(0x94, 0xe0, 0x89), new Color(0x78, 0x69, 0xc4),
+        new Color(0x9f, 0x9f, 0x9f),
+    };
+
+    private static final Color[] PALETTE_WINDOWS95 = {
+        new Color(0x00, 0x00, 0x00), new Color(0x00, 0x80, 0x80), new Color(0x80, 0x00, 0x00),
+        new Color(0x00, 0x00, 0x80), new Color(0x80, 0x80, 0x00), new Color(0x80, 0x00, 0x80),
+        new Color(0x00, 0x80, 0x00), new Color(0x80, 0x80, 0x80), new Color(0xc0, 0xc0, 0xc0),
+        new Color(0x00, 0xff, 0xff), new Color(0xff, 0x00, 0x00), new Color(0x00, 0x00, 0xff),
+        new Color(0xff, 0xff, 0x00), new Color(0xff, 0x00, 0xff), new Color(0x00, 0xff, 0x00),
+        new Color(0xff, 0xff, 0xff),
+    };
+
+    private static final Color[] PALETTE_VAPORWAVE = {
+        new Color(0x0d, 0x02, 0x22), new Color(0x1a, 0x05, 0x3d), new Color(0x2d, 0x0a, 0x5c),
+        new Color(0x4b, 0x0d, 0x8a), new Color(0xff, 0x71, 0xce), new Color(0x01, 0xcd, 0xfe),
+        new Color(0x05, 0xff, 0xa1), new Color(0xb9, 0x67, 0xff), new Color(0xff, 0xfb, 0x96),
+        new Color(0xff, 0x6e, 0xb4), new Color(0x7d, 0xf9, 0xff), new Color(0x39, 0xff, 0x14),
+        new Color(0xe0, 0xac, 0x69), new Color(0x94, 0x00, 0xd3), new Color(0x00, 0x00, 0x80),
+        new Color(0xff, 0x14, 0x93),
+    };
+
+    private static final Color[] PALETTE_APPLEII = {
+        new Color(0x00, 0x00, 0x00), new Color(0x55, 0x55, 0x55), new Color(0xff, 0xff, 0xff),
+        new Color(0x00, 0x88, 0x00), new Color(0x00, 0xff, 0x00), new Color(0x00, 0x00, 0xff),
+        new Color(0x55, 0x55, 0xff), new Color(0xff, 0x00, 0x00), new Color(0xff, 0x55, 0x55),
+        new Color(0xff, 0x88, 0x00), new Color(0xff, 0xff, 0x00), new Color(0x88, 0x00, 0x88),
+        new Color(0xff, 0x00, 0xff), new Color(0x00, 0x88, 0x88), new Color(0x00, 0xff, 0xff),
+        new Color(0xaa, 0xaa, 0xaa),
+    };
+
+    private static final Color[] PALETTE_CYBERPUNK = {
+        new Color(0x0a, 0x0a, 0x12), new Color(0x12, 0x12, 0x25), new Color(0x1e, 0x1e, 0x3c),
+        new Color(0x2a, 0x2a, 0x50), new Color(0xff, 0x00, 0x99), new Color(0x00, 0xff, 0xee),
+        new Color(0xff, 0x66, 0x00), new Color(0x99, 0x00, 0xff), new Color(0x00, 0xcc, 0xff),
+        new Color(0xff, 0x00, 0xff), new Color(0x33, 0xff, 0x99), new Color(0xff, 0xcc, 0x00),
+        new Color(0x66, 0x33, 0xff), new Color(0xff, 0x33, 0x66), new Color(0x66, 0xff, 0xff),
+        new Color(0xff, 0xff, 0x00),
+    };
+
+    private static final Color[] PALETTE_MONOCHROME = {
+        new Color(0x00, 0x00, 0x00), new Color(0x11, 0x11, 0x11), new Color(0x22, 0x22, 0x22),
+        new Color(0x33, 0x33, 0x33), new Color(0x44, 0x44, 0x44), new Color(0x55, 0x55, 0x55),
+        new Color(0x66, 0x66, 0x66), new Color(0x77, 0x77, 0x77), new Color(0x88, 0x88, 0x88),
+        new Color(0x99, 0x99, 0x99), new Color(0xaa, 0xaa, 0xaa), new Color(0xbb, 0xbb, 0xbb),
+        new Color(0xcc, 0xcc, 0xcc), new Color(0xdd, 0xdd, 0xdd), new Color(0xee, 0xee, 0xee),
+        new Color(0xff, 0xff, 0xff),
+    };
+
+    static final Color[][] PALETTES = {
+        PALETTE_FRUTIGER_AERO, PALETTE_PICO8, PALETTE_CGA,
+        PALETTE_C64, PALETTE_WINDOWS95, PALETTE_VAPORWAVE, PALETTE_APPLEII,
+        PALETTE_CYBERPUNK, PALETTE_MONOCHROME,
+    };
+    static final String[] NAMES = {
+        "Frutiger Aero", "PICO-8", "CGA", "C64",
+        "Windows 95", "Vaporwave", "Apple II", "Cyberpunk", "Monochrome",
+    };
+
+    static final int[][] RGB = new int[PALETTES.length][];
+    static {
+        for (int i = 0; i < PALETTES.length; i++) RGB[i] = PixelPipeline.toRgb(PALETTES[i]);
+    }
+
+    private static final PaletteLut[] LUTS = new PaletteLut[PALETTES.length];
+
+    private Palettes() {}
+
+    /**
+     * Nearest-colour lookup table for palette i, built on first request. Tables are built
+     * outside the lock so several palettes can be built at once (the palette strip asks
+     * for all of them together); if two threads race on one, the first stored wins.
+     */
+    static PaletteLut lut(int i) {
+        synchronized (LUTS) {
+            if (LUTS[i] != null) return LUTS[i];
+        }
+        PaletteLut built = new PaletteLut(RGB[i]);
+        synchronized (LUTS) {
+            if (LUTS[i] == null) LUTS[i] = built;
+            return LUTS[i];
+        }
+    }
+}
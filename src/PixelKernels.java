@@ -0,0 +1,120 @@
+import java.util.Random;
+
+/**
+ * The pipeline's two innermost loops, behind an implementation chosen once at startup.
+ *
+ * {@link #SCALAR} is the reference: plain loops that any JVM runs. When the JVM was
+ * started with --add-modules jdk.incubator.vector (JDK 16+) and build.bat managed to
+ * compile src/vector, {@code VectorKernels} is loaded by name instead, which does the
+ * same arithmetic several lanes at a time. It is only used after it reproduces the
+ * scalar answers on a fixed sample, so results never depend on which one runs.
+ * -Dpixelator.simd=false forces the scalar loops.
+ *
+ * Vector code is slow until the JIT has compiled it (the interpreter boxes every
+ * vector), so the module pays off in processes that render many images, such as the
+ * service, batch runs and benchmarks, and costs a one-off conversion time instead.
+ */
+abstract class PixelKernels {
+
+    static final PixelKernels SCALAR = new Scalar();
+    /** The implementation in use. */
+    static final PixelKernels ACTIVE = select();
+
+    /** Short description for logs and benchmarks. */
+    abstract String name();
+
+    /**
+     * Writes the integer channel average of every block in cell row cy of grid, taken
+     * from in (grid.width pixels per row), to grid-ordered cells.
+     */
+    abstract void averageCellRow(int[] in, BlockGrid grid, int cy, int[] cells);
+
+    /** Index of the palette entry closest to (r, g, b) by the redmean metric; first entry wins ties. */
+    abstract int nearestRedmean(float r, float g, float b, int[] palette);
+
+    private static PixelKernels select() {
+        if (!Boolean.parseBoolean(System.getProperty("pixelator.simd", "true"))) return SCALAR;
+        try {
+            PixelKernels vector = (PixelKernels) Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+            return agrees(vector) ? vector : SCALAR;
+        } catch (Throwable t) {
+            // Not compiled, module not added (--add-modules jdk.incubator.vector), or too few lanes
+            return SCALAR;
+        }
+    }
+
+    /** True if k gives the scalar answers on odd-sized images and blocks and on random palettes. */
+    private static boolean agrees(PixelKernels k) {
+        Random rnd = new Random(7);
+        int w = 53, h = 19;
+        int[] px = new int[w * h];
+        for (int i = 0; i < px.length; i++) px[i] = rnd.nextInt(1 << 24);
+        for (int block : new int[] { 3, 16 }) {
+            BlockGrid grid = new BlockGrid(w, h, block, null);
+            int[] a = new int[grid.cols * grid.rows], b = new int[a.length];
+            for (int cy = 0; cy < grid.rows; cy++) {
+                SCALAR.averageCellRow(px, grid, cy, a);
+                k.averageCellRow(px, grid, cy, b);
+            }
+            if (!java.util.Arrays.equals(a, b)) return false;
+        }
+        for (int n : new int[] { 5, 19 }) {
+            int[] palette = new int[n];
+            for (int i = 0; i < n; i++) palette[i] = rnd.nextInt(1 << 24);
+            if (n > 2) palette[n - 1] = palette[1]; // a tie, which the first entry must win
+            for (int i = 0; i < 16; i++) {
+                float r = rnd.nextInt(256) + rnd.nextFloat() - 0.5f, g = rnd.nextInt(256), b = rnd.nextFloat() * 255;
+                if (k.nearestRedmean(r, g, b, palette) != SCALAR.nearestRedmean(r, g, b, palette)) return false;
+            }
+        }
+        return true;
+    }
+
+    /** The plain loops. */
+    private static final class Scalar extends PixelKernels {
+        @Override
+        String name() {
+            return "scalar";
+        }
+
+        @Override
+        void averageCellRow(int[] in, BlockGrid grid, int cy, int[] cells) {
+            int w = grid.width;
+            int by = cy * grid.blockSize;
+            int bh = grid.cellHeight(cy);
+            for (int cx = 0; cx < grid.cols; cx++) {
+                int bx = cx * grid.blockSize;
+                int bw = grid.cellWidth(cx);
+                long rSum = 0, gSum = 0, bSum = 0;
+                int count = bw * bh;
+                for (int y = by; y < by + bh; y++) {
+                    int row = y * w;
+                    for (int i = row + bx, end = row + bx + bw; i < end; i++) {
+                        int rgb = in[i];
+                        rSum += (rgb >> 16) & 0xFF;
+                        gSum += (rgb >> 8) & 0xFF;
+                        bSum += rgb & 0xFF;
+                    }
+                }
+                int avgR = (int) (rSum / count);
+                int avgG = (int) (gSum / count);
+                int avgB = (int) (bSum / count);
+                cells[cy * grid.cols + cx] = (avgR << 16) | (avgG << 8) | avgB;
+            }
+        }
+
+        @Override
+        int nearestRedmean(float r, float g, float b, int[] palette) {
+            int best = 0;
+            double bestDist = Double.MAX_VALUE;
+            for (int i = 0; i < palette.length; i++) {
+                double dist = PixelPipeline.redmeanDistance(r, g, b, palette[i]);
+                if (dist < bestDist) {
+                    bestDist = dist;
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+}
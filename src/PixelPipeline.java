@@ -0,0 +1,529 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Headless processing engine behind Poly Pixelator.
+ *
+ * Block stages (downsample, palette mapping, outline detection) work on a
+ * {@link BlockGrid} with one cell per block; pixel stages (ghost, border) work on the
+ * int[] that backs a TYPE_INT_RGB raster (row-major, stride == width) instead of
+ * going through getRGB/setRGB and the ColorModel. Palettes are packed 0xRRGGBB ints.
+ * Nothing in here touches Swing, so the same stages can run from the UI worker or
+ * from anything else that has an image.
+ *
+ * Long stages poll a {@code BooleanSupplier} once per block row and abort with
+ * {@link CancellationException} when it returns true, so a superseded render
+ * stops within one row of blocks.
+ */
+final class PixelPipeline {
+
+    private static final int[][] BAYER_8X8 = {
+        {  0, 32,  8, 40,  2, 34, 10, 42 },
+        { 48, 16, 56, 24, 50, 18, 58, 26 },
+        { 12, 44,  4, 36, 14, 46,  6, 38 },
+        { 60, 28, 52, 20, 62, 30, 54, 22 },
+        {  3, 35, 11, 43,  1, 33,  9, 41 },
+        { 51, 19, 59, 27, 49, 17, 57, 25 },
+        { 15, 47,  7, 39, 13, 45,  5, 37 },
+        { 63, 31, 55, 23, 61, 29, 53, 21 },
+    };
+
+    /** Cancellation hook for callers that never abandon a render. */
+    static final BooleanSupplier NEVER_CANCELLED = () -> false;
+
+    private PixelPipeline() {}
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // RASTER HELPERS
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Packs a Color[] palette into 0xRRGGBB ints (alpha dropped, as TYPE_INT_RGB does). */
+    static int[] toRgb(Color[] palette) {
+        int[] out = new int[palette.length];
+        for (int i = 0; i < palette.length; i++) out[i] = palette[i].getRGB() & 0xFFFFFF;
+        return out;
+    }
+
+    /** Returns src itself if it is already TYPE_INT_RGB, otherwise a TYPE_INT_RGB copy. */
+    static BufferedImage toIntRgb(BufferedImage src) {
+        if (src.getType() == BufferedImage.TYPE_INT_RGB) return src;
+        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return out;
+    }
+
+    /** Backing array of a TYPE_INT_RGB image (stride == width). */
+    static int[] pixels(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // STAGES
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /**
+     * True block downsampling: every N×N block becomes one cell holding its integer channel
+     * average. With a summed-area table for src each block costs four lookups instead of a
+     * scan; pass null to sum the pixels directly, a cell row at a time through
+     * {@link PixelKernels}.
+     */
+    static BlockGrid downsampleBlocks(BufferedImage src, int blockSize, SummedAreaTable sat, BooleanSupplier cancelled) {
+        return downsampleBlocks(src, blockSize, sat, null, cancelled);
+    }
+
+    /**
+     * {@link #downsampleBlocks} summing with the given kernels when there is no table, or
+     * {@link PixelKernels#ACTIVE} if null (benchmarks compare them). The kernels are only
+     * set up if they are used.
+     */
+    static BlockGrid downsampleBlocks(BufferedImage src, int blockSize, SummedAreaTable sat, PixelKernels kernels, BooleanSupplier cancelled) {
+        src = toIntRgb(src);
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int[] in = pixels(src);
+        BlockGrid grid = new BlockGrid(w, h, blockSize, null);
+        int[] cells = new int[grid.cols * grid.rows];
+        boolean useSat = sat != null && sat.width == w && sat.height == h && blockSize <= SummedAreaTable.MAX_BLOCK;
+
+        forEachBand(grid.rows, (cyFrom, cyTo) -> {
+            for (int cy = cyFrom; cy < cyTo; cy++) {
+                checkCancelled(cancelled);
+                if (!useSat) {
+                    (kernels != null ? kernels : PixelKernels.ACTIVE).averageCellRow(in, grid, cy, cells);
+                    continue;
+                }
+                int by = cy * blockSize;
+                int bh = grid.cellHeight(cy);
+                for (int cx = 0; cx < grid.cols; cx++) {
+                    cells[cy * grid.cols + cx] = sat.blockAverage(cx * blockSize, by, grid.cellWidth(cx), bh);
+                }
+            }
+        });
+        return grid.withCells(cells);
+    }
+
+    /**
+     * The source reduced by an integer factor f, for coarse previews. With a summed-area
+     * table each output pixel is its f×f box average; without one the centre pixel of
+     * the box is sampled, so either way the cost is proportional to the output size.
+     */
+    static BufferedImage mipLevel(BufferedImage src, int f, SummedAreaTable sat, BooleanSupplier cancelled) {
+        src = toIntRgb(src);
+        int w = src.getWidth();
+        int h = src.getHeight();
+        if (sat != null && sat.width == w && sat.height == h && f <= SummedAreaTable.MAX_BLOCK) {
+            return downsampleBlocks(src, f, sat, cancelled).toCellImage();
+        }
+        int mw = (w + f - 1) / f;
+        int mh = (h + f - 1) / f;
+        int[] in = pixels(src);
+        BufferedImage out = new BufferedImage(mw, mh, BufferedImage.TYPE_INT_RGB);
+        int[] dst = pixels(out);
+        forEachBand(mh, (yFrom, yTo) -> {
+            for (int my = yFrom; my < yTo; my++) {
+                checkCancelled(cancelled);
+                int row = Math.min(h - 1, my * f + f / 2) * w;
+                for (int mx = 0; mx < mw; mx++) {
+                    dst[my * mw + mx] = in[row + Math.min(w - 1, mx * f + f / 2)];
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Redmean palette mapping per cell through the palette's lookup table, with optional
+     * 8×8 Bayer ordered dithering keyed on the block's pixel position. Each cell's average
+     * goes through the same float path as summing its uniform block would (sum / count),
+     * so results match the full-resolution pass exactly.
+     */
+    static BlockGrid applyPaletteWithDither(BlockGrid src, PaletteLut lut, boolean dither, BooleanSupplier cancelled) {
+        int blockSize = src.blockSize;
+        int[] in = src.cells;
+        int[] out = new int[in.length];
+
+        forEachBand(src.rows, (cyFrom, cyTo) -> {
+            for (int cy = cyFrom; cy < cyTo; cy++) {
+                checkCancelled(cancelled);
+                int by = cy * blockSize;
+                int bh = src.cellHeight(cy);
+                for (int cx = 0; cx < src.cols; cx++) {
+                    int i = cy * src.cols + cx;
+                    out[i] = paletteColour(in[i], (long) src.cellWidth(cx) * bh, cx * blockSize, by, lut, dither);
+                }
+            }
+        });
+        return src.withCells(out);
+    }
+
+    /** The palette colour of one cell of the given colour and pixel count at (bx, by); see {@link #applyPaletteWithDither}. */
+    static int paletteColour(int rgb, long count, int bx, int by, PaletteLut lut, boolean dither) {
+        float avgR = (float) (((rgb >> 16) & 0xFF) * count) / count;
+        float avgG = (float) (((rgb >> 8) & 0xFF) * count) / count;
+        float avgB = (float) ((rgb & 0xFF) * count) / count;
+
+        if (dither) {
+            float t = (BAYER_8X8[by % 8][bx % 8] / 64.0f) - 0.5f;
+            float bias = t * 48f;
+            avgR = clamp(avgR + bias);
+            avgG = clamp(avgG + bias);
+            avgB = clamp(avgB + bias);
+        }
+
+        return lut.palette[lut.nearest(avgR, avgG, avgB)];
+    }
+
+    /**
+     * One grid through every palette in {@link Palettes} at once, element i being palette i.
+     * The palettes are spread over the stage pool and each splits its own rows as usual;
+     * src is only read, so all of them share its block averages.
+     */
+    static BlockGrid[] applyAllPalettes(BlockGrid src, boolean dither, BooleanSupplier cancelled) {
+        BlockGrid[] out = new BlockGrid[Palettes.PALETTES.length];
+        forEachBand(out.length, (from, to) -> {
+            for (int i = from; i < to; i++) out[i] = applyPaletteWithDither(src, Palettes.lut(i), dither, cancelled);
+        });
+        return out;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // FULL RENDER
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Output of {@link #render}: the block grid, and the expanded image if ghost or border needed one (else null). */
+    static final class Rendered {
+        final BlockGrid grid;
+        final BufferedImage image;
+
+        Rendered(BlockGrid grid, BufferedImage image) {
+            this.grid = grid;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Every stage up to the dialog, in order: downsample, the cell stages of
+     * {@link FxChain} (palette, outline), then its pixel stages (ghost) and border on the
+     * expanded image. source may be a 1/scale decode of a fullW×fullH image (see
+     * ImageDecoder); the grid always has the full-size shape, but the image is expanded
+     * at source's resolution, with ghost offset and border width scaled to match, since
+     * only the editor works from such a decode and export goes back to the file for a
+     * full one. sat is source's summed-area table or null. Each stage is timed through RenderMetrics. This is what the editor
+     * renders in the background and what the command line runs. fullImage false stops at
+     * the grid, for callers that write it out directly ({@link PngExport#writeIndexed}
+     * draws the border itself; it is only used without pixel stages).
+     */
+    static Rendered render(BufferedImage source, int scale, int fullW, int fullH, SummedAreaTable sat, RenderParams p,
+                           boolean fullImage, BooleanSupplier cancelled) {
+        return render(source, scale, fullW, fullH, sat, p, fullImage, null, cancelled);
+    }
+
+    /**
+     * {@link #render} with the pixel stages drawing into target when it fits (see
+     * {@link FxChain#into}), for the editor, which keeps the image off screen for this.
+     */
+    static Rendered render(BufferedImage source, int scale, int fullW, int fullH, SummedAreaTable sat, RenderParams p,
+                           boolean fullImage, BufferedImage target, BooleanSupplier cancelled) {
+        FxChain fx = FxChain.of(p, 1).timed(fullW, fullH);
+        RenderMetrics.Span s = RenderMetrics.begin(RenderMetrics.DOWNSAMPLE, fullW, fullH, p);
+        BlockGrid grid = downsampleBlocks(source, p.blockSize / scale, sat, cancelled);
+        if (scale > 1) grid = grid.asBlocksOf(fullW, fullH, p.blockSize);
+        s.end();
+        grid = fx.cells(grid, cancelled);
+        checkCancelled(cancelled);
+        BufferedImage image = null;
+        if (fullImage && (fx.hasPixelStages() || p.borderMode > 0)) {
+            BlockGrid shown = grid;
+            if (scale > 1) {
+                shown = grid.asBlocksOf(source.getWidth(), source.getHeight(), p.blockSize / scale);
+                fx = FxChain.of(p, scale).timed(fullW, fullH);
+            }
+            if (fx.hasPixelStages()) image = fx.into(target).pixels(shown, cancelled);
+            if (p.borderMode > 0) {
+                // Without pixel stages, expanding is charged to the border
+                s = RenderMetrics.begin(RenderMetrics.BORDER, fullW, fullH, p);
+                int bw = scale > 1 ? Math.max(1, Math.round((float) BORDER_WIDTH / scale)) : BORDER_WIDTH;
+                image = applyBorder(image != null ? image : shown.expand(), p.borderMode, bw);
+                s.end();
+            }
+        }
+        checkCancelled(cancelled);
+        return new Rendered(grid, image);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════
+    // PARALLELISM
+    // ═══════════════════════════════════════════════════════════════════════════
+
+    /** Work on one contiguous band of rows [from, to). Bands never write outside their rows. */
+    interface RowBand {
+        void run(int from, int to);
+    }
+
+    private static volatile ForkJoinPool pool = newPool(Integer.getInteger("pixelator.parallelism", Runtime.getRuntime().availableProcessors()));
+
+    private static ForkJoinPool newPool(int parallelism) {
+        return new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /** Number of worker threads stages may use; defaults to -Dpixelator.parallelism or the core count. */
+    static int parallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Replaces the stage pool with one of parallelism workers, for the benchmark's --threads.
+     * Bands already submitted finish on the old pool, which then shuts down; a band
+     * submitted to it just as it is replaced runs on the new one instead.
+     */
+    static synchronized void setParallelism(int parallelism) {
+        if (parallelism == pool.getParallelism()) return;
+        ForkJoinPool old = pool;
+        pool = newPool(parallelism);
+        old.shutdown();
+    }
+
+    /**
+     * Splits [0, rows) into a few bands per worker and runs them on the stage pool. Each
+     * band writes only its own rows, so the result does not depend on scheduling. A
+     * CancellationException from any band propagates to the caller.
+     */
+    static void forEachBand(int rows, RowBand body) {
+        for (;;) {
+            ForkJoinPool p = pool;
+            int threads = p.getParallelism();
+            if (threads <= 1 || rows <= 1) {
+                body.run(0, rows);
+                return;
+            }
+            int grain = Math.max(1, (rows + threads * 4 - 1) / (threads * 4));
+            try {
+                p.invoke(new BandTask(body, 0, rows, grain));
+                return;
+            } catch (RejectedExecutionException e) {
+                // Rejected before any band ran: p was shut down by setParallelism after we read it
+                if (p == pool) throw e;
+            }
+        }
+    }
+
+    private static final class BandTask extends RecursiveAction {
+        private final RowBand body;
+        private final int from, to, grain;
+
+        BandTask(RowBand body, int from, int to, int grain) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BandTask(body, from, mid, grain), new BandTask(body, mid, to, grain));
+        }
+    }
+
+    /** Throws CancellationException if the render has been superseded. */
+    static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) throw new CancellationException();
+    }
+
+    static float clamp(float v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    /** Index of the palette entry closest to (r, g, b) by the redmean metric; first entry wins ties. */
+    static int findNearestRedmean(float r, float g, float b, int[] palette) {
+        return PixelKernels.ACTIVE.nearestRedmean(r, g, b, palette);
+    }
+
+    /** Redmean ("weighted Euclidean") distance between (r, g, b) and packed colour c. */
+    static double redmeanDistance(float r, float g, float b, int c) {
+        int cr = (c >> 16) & 0xFF, cg = (c >> 8) & 0xFF, cb = c & 0xFF;
+        double dr = r - cr, dg = g - cg, db = b - cb;
+        double rBar = (r + cr) / 2.0;
+        double termR = (2.0 + rBar / 256.0) * dr * dr;
+        double termG = 4.0 * dg * dg;
+        double termB = (2.0 + (255.0 - rBar) / 256.0) * db * db;
+        return Math.sqrt(termR + termG + termB);
+    }
+
+    /** Default ghost trail: offset in full-size pixels, right and down, opacity and number of copies. */
+    static final int GHOST_OFFSET = 10;
+    static final float GHOST_ALPHA = 0.3f;
+    static final int GHOST_TRAILS = 1;
+
+    /**
+     * Ghost FX: blend image with offset semi-transparent copy (motion-trail). One new image
+     * is the only allocation; each row band fills its own rows of it.
+     */
+    static BufferedImage applyGhost(BufferedImage src, int offsetX, int offsetY, float alpha, BooleanSupplier cancelled) {
+        return applyGhost(src, null, offsetX, offsetY, alpha, GHOST_TRAILS, cancelled);
+    }
+
+    /**
+     * Ghost FX with trails copies of src, copy k shifted by k times the offset, drawn
+     * farthest first so the nearest copy is on top. The result goes into dst, which is
+     * returned, if it is a TYPE_INT_RGB image the size of src, so a caller can reuse one
+     * buffer across frames; otherwise into a new image. dst must not be src.
+     */
+    static BufferedImage applyGhost(BufferedImage src, BufferedImage dst, int offsetX, int offsetY, float alpha, int trails,
+                                    BooleanSupplier cancelled) {
+        src = toIntRgb(src);
+        int w = src.getWidth();
+        int h = src.getHeight();
+        if (dst == null || dst.getType() != BufferedImage.TYPE_INT_RGB || dst.getWidth() != w || dst.getHeight() != h) {
+            dst = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        }
+        int[] in = pixels(src);
+        int[] out = pixels(dst);
+        forEachBand(h, (y0, y1) -> {
+            checkCancelled(cancelled);
+            ghostRows(in, out, w, h, y0, y1, offsetX, offsetY, alpha, trails);
+        });
+        return dst;
+    }
+
+    /**
+     * Rows [y0, y1) of the ghost of in (w×h, packed 0xRRGGBB) into the same rows of out.
+     * Each copy is blended with integer arithmetic that reproduces Java 2D's SRC_OVER at
+     * that alpha bit for bit: alpha goes to 8 bits rounded, and every channel becomes
+     * a·s/255 + (255−a)·d/255, each product rounded through the same multiply-and-shift
+     * as Java 2D's mul8table. Rows are written left to right once, and copies blend into
+     * them in place.
+     */
+    static void ghostRows(int[] in, int[] out, int w, int h, int y0, int y1, int offsetX, int offsetY, float alpha, int trails) {
+        ghostRows(null, in, out, w, h, y0, y1, offsetX, offsetY, alpha, trails);
+    }
+
+    /**
+     * {@link #ghostRows} for a strip of a taller image: copies that reach above row 0 of in
+     * read the image's preceding rows from above, w values each, where they lie (null or
+     * short at the top of the image, where those copies are cut off as usual).
+     */
+    static void ghostRows(int[] above, int[] in, int[] out, int w, int h, int y0, int y1, int offsetX, int offsetY, float alpha,
+                          int trails) {
+        int aboveRows = above != null ? above.length / w : 0;
+        int a = (int) (alpha * 255 + 0.5f);
+        int[] fg = mul8(a);
+        int[] bg = mul8(255 - a);
+        for (int y = y0; y < y1; y++) {
+            int row = y * w;
+            System.arraycopy(in, row, out, row, w);
+            for (int k = trails; k >= 1; k--) {
+                int sy = y - k * offsetY;
+                if (sy < -aboveRows || sy >= h) continue;
+                int[] src = sy >= 0 ? in : above;
+                int srcRow = sy >= 0 ? sy * w : (aboveRows + sy) * w;
+                int dx = k * offsetX;
+                int from = row + Math.max(0, dx), to = row + Math.min(w, w + dx);
+                for (int i = from, j = srcRow + from - row - dx; i < to; i++, j++) {
+                    int s = src[j], d = out[i];
+                    out[i] = (fg[(s >> 16) & 0xFF] + bg[(d >> 16) & 0xFF]) << 16
+                        | (fg[(s >> 8) & 0xFF] + bg[(d >> 8) & 0xFF]) << 8
+                        | (fg[s & 0xFF] + bg[d & 0xFF]);
+                }
+            }
+        }
+    }
+
+    /** a·c/255 rounded for every channel value c, as row a of Java 2D's mul8table. */
+    private static int[] mul8(int a) {
+        int[] t = new int[256];
+        long inc = a * 0x10101L;
+        long val = inc + (1L << 23);
+        for (int c = 1; c < 256; c++, val += inc) t[c] = (int) (val >> 24);
+        return t;
+    }
+
+    /**
+     * Outline FX: dark lines on edges between blocks with different colors (cel-shaded).
+     * Detection is per cell; the lines themselves are drawn when the grid is expanded.
+     * A band only reads the cell row above it from the (immutable) input cells.
+     */
+    static BlockGrid applyOutline(BlockGrid src, int[] palette, BooleanSupplier cancelled) {
+        return applyOutline(src, null, palette, cancelled);
+    }
+
+    /**
+     * Outline for a horizontal strip of a larger grid: above holds the cells of the row just
+     * above the strip (null for the top of the image), so top edges match a whole-image pass.
+     */
+    static BlockGrid applyOutline(BlockGrid src, int[] above, int[] palette, BooleanSupplier cancelled) {
+        int cols = src.cols;
+        int[] cells = src.cells;
+        byte[] edges = new byte[cells.length];
+
+        forEachBand(src.rows, (cyFrom, cyTo) -> {
+            for (int cy = cyFrom; cy < cyTo; cy++) {
+                checkCancelled(cancelled);
+                int row = cy * cols;
+                for (int cx = 0; cx < cols; cx++) {
+                    int i = row + cx;
+                    byte e = 0;
+                    if (cx > 0 && cells[i - 1] != cells[i]) e |= BlockGrid.EDGE_LEFT;
+                    if (cy > 0 ? cells[i - cols] != cells[i] : above != null && above[cx] != cells[i]) e |= BlockGrid.EDGE_TOP;
+                    edges[i] = e;
+                }
+            }
+        });
+        return src.withOutline(edges, outlineColor(palette), src.blockSize >= 16 ? 2 : 1);
+    }
+
+    /** Outline colour: the palette's first entry, darkened by 80 per channel if it is too light. */
+    static int outlineColor(int[] palette) {
+        int c = palette.length > 0 ? palette[0] : 0x000000;
+        int r = (c >> 16) & 0xFF, g = (c >> 8) & 0xFF, b = c & 0xFF;
+        if (r + g + b > 128) {
+            r = Math.max(0, r - 80);
+            g = Math.max(0, g - 80);
+            b = Math.max(0, b - 80);
+        }
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /** Width in pixels of the frame added by applyBorder. */
+    static final int BORDER_WIDTH = 2;
+
+    /** Border colour for mode 1 (black/white) or 2 (navy). */
+    static int borderColor(int mode) {
+        return (mode == 2) ? 0x000080 : 0x000000;
+    }
+
+    /** Add 2px border around image. mode: 1=black/white, 2=navy. */
+    static BufferedImage applyBorder(BufferedImage src, int mode) {
+        return applyBorder(src, mode, BORDER_WIDTH);
+    }
+
+    /** Border of bw pixels, for images shown at less than full size. */
+    static BufferedImage applyBorder(BufferedImage src, int mode, int bw) {
+        src = toIntRgb(src);
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int borderRgb = borderColor(mode);
+        int ow = w + 2 * bw;
+        BufferedImage out = new BufferedImage(ow, h + 2 * bw, BufferedImage.TYPE_INT_RGB);
+        int[] in = pixels(src);
+        int[] dst = pixels(out);
+        Arrays.fill(dst, borderRgb);
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(in, y * w, dst, (y + bw) * ow + bw, w);
+        }
+        return out;
+    }
+}
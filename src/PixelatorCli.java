@@ -0,0 +1,264 @@
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command-line conversion of one image, for scripts and build pipelines:
+ *
+ *   java -cp out PixelatorCli --in photo.jpg --out photo.png --block 16 --palette PICO-8 --dither --outline --border navy
+ *
+ * Runs the editor's render ({@link PixelPipeline#render}, then the dialog) and saves
+ * the result the way Save PNG does. Images too large for memory are streamed in strips
+ * through {@link StreamingPixelator} instead, as is every image with --offheap-mb,
+ * which decodes into a {@link PackedRaster} outside the heap first when it fits. With
+ * --batch, every --in (files, or folders of images) is converted into the --out folder
+ * by {@link BatchConverter}, which overlaps decoding, rendering and encoding. --cache
+ * keeps results in a {@link RenderCache} so a repeated conversion is a file copy. Runs
+ * with java.awt.headless=true and never loads the Swing editor, so startup is just the
+ * JVM, ImageIO and the pipeline; see the README for a class-data-sharing archive that
+ * trims it further.
+ */
+public final class PixelatorCli {
+
+    private static final String USAGE = String.join("\n",
+        "Usage: java -cp out PixelatorCli --in <image> --out <png> [options]",
+        "       java -cp out PixelatorCli --batch --in <image|folder> [--in ...] --out <folder> [options]",
+        "  --block <px>            block size (default 16)",
+        "  --palette <name|index>  " + String.join(", ", Palettes.NAMES) + " (default " + Palettes.NAMES[0] + ")",
+        "  --dither                Bayer dithering",
+        "  --outline               dark outline around shapes",
+        "  --ghost                 ghost trail",
+        "  --ghost-offset <px>     how far each ghost copy is shifted down and right (default 10)",
+        "  --ghost-opacity <%>     opacity of each ghost copy (default 30)",
+        "  --ghost-trails <n>      ghost copies, each one offset further (default 1)",
+        "  --border <mode>         off, b/w or navy (default off)",
+        "  --fx <name,...>         installed effects to run, in order (see FxStage)",
+        "  --dialog-text <text>    draw a dialog box (\\n for a new line)",
+        "  --dialog-name <name>    speaker name above the dialog text",
+        "  --dialog-style <style>  jrpg-blue, jrpg-black, classic, modern, terminal or ghost",
+        "  --dialog-pos <%>        vertical position (default 80)",
+        "  --dialog-height <%>     box height, 10-50 (default 20)",
+        "  --dialog-width <%>      box width (default 90)",
+        "  --scale <px>            save one <px>-wide square per block (indexed output only)",
+        "  --stream                convert in strips without loading the whole image",
+        "  --offheap-mb <n>        decode into n MB outside the Java heap (3 bytes a pixel) and convert",
+        "                          in strips from there; images that do not fit are streamed",
+        "  --timings               print stage timings to stderr",
+        "  --cache <folder>        reuse results for the same image and settings from this folder",
+        "  --cache-mb <n>          cache size before the least recently used go (default 1024)",
+        "Batch options:",
+        "  --decode-threads <n>    threads reading and decoding files",
+        "  --process-threads <n>   threads rendering",
+        "  --encode-threads <n>    threads writing PNGs",
+        "  --queue <n>             images waiting between two stages (default 4)",
+        "  --memory-mb <n>         working memory for images in flight (default half the heap)",
+        "  --help");
+
+    static final String[] DIALOG_STYLES = { "jrpg-blue", "jrpg-black", "classic", "modern", "terminal", "ghost" };
+
+    private PixelatorCli() {}
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /** Parses args and converts; returns the exit code (0 done, 1 conversion failed, 2 bad arguments). */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        List<File> inputs = new ArrayList<>();
+        File target = null;
+        int block = 16, palette = 0, border = 0, scale = 0;
+        int ghostOffset = PixelPipeline.GHOST_OFFSET, ghostOpacity = Math.round(PixelPipeline.GHOST_ALPHA * 100), ghostTrails = PixelPipeline.GHOST_TRAILS;
+        boolean dither = false, outline = false, ghost = false, stream = false, timings = false, batch = false;
+        BatchConverter defaults = BatchConverter.withDefaults();
+        int decodeThreads = defaults.decodeThreads, processThreads = defaults.processThreads, encodeThreads = defaults.encodeThreads;
+        int queue = defaults.queueCapacity;
+        long budget = defaults.budgetBytes;
+        File cacheDir = null;
+        long cacheBytes = 1L << 30;
+        String dialogText = "", dialogName = "";
+        String[] fx = new String[0];
+        int dialogStyle = 0, dialogPos = 80, dialogHeight = 20, dialogWidth = 90;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                switch (a) {
+                    case "--in": inputs.add(new File(value(args, ++i, a))); break;
+                    case "--out": target = new File(value(args, ++i, a)); break;
+                    case "--block": block = number(args, ++i, a, 1, SummedAreaTable.MAX_BLOCK); break;
+                    case "--palette": palette = choice(value(args, ++i, a), Palettes.NAMES, a); break;
+                    case "--dither": dither = true; break;
+                    case "--outline": outline = true; break;
+                    case "--ghost": ghost = true; break;
+                    case "--ghost-offset": ghostOffset = number(args, ++i, a, 1, SummedAreaTable.MAX_BLOCK); break;
+                    case "--ghost-opacity": ghostOpacity = number(args, ++i, a, 0, 100); break;
+                    case "--ghost-trails": ghostTrails = number(args, ++i, a, 1, 16); break;
+                    case "--border": border = choice(value(args, ++i, a), RenderParams.BORDER_NAMES, a); break;
+                    case "--fx": fx = FxChain.parseNames(value(args, ++i, a)); break;
+                    case "--dialog-text": dialogText = value(args, ++i, a).replace("\\n", "\n"); break;
+                    case "--dialog-name": dialogName = value(args, ++i, a); break;
+                    case "--dialog-style": dialogStyle = choice(value(args, ++i, a), DIALOG_STYLES, a); break;
+                    case "--dialog-pos": dialogPos = number(args, ++i, a, 0, 100); break;
+                    case "--dialog-height": dialogHeight = number(args, ++i, a, 10, 50); break;
+                    case "--dialog-width": dialogWidth = number(args, ++i, a, 10, 100); break;
+                    case "--scale": scale = number(args, ++i, a, 1, SummedAreaTable.MAX_BLOCK); break;
+                    case "--stream": stream = true; break;
+                    case "--offheap-mb": PackedRaster.setBudget((long) number(args, ++i, a, 1, Integer.MAX_VALUE) << 20); break;
+                    case "--timings": timings = true; break;
+                    case "--cache": cacheDir = new File(value(args, ++i, a)); break;
+                    case "--cache-mb": cacheBytes = (long) number(args, ++i, a, 1, Integer.MAX_VALUE) << 20; break;
+                    case "--batch": batch = true; break;
+                    case "--decode-threads": decodeThreads = number(args, ++i, a, 1, 256); break;
+                    case "--process-threads": processThreads = number(args, ++i, a, 1, 256); break;
+                    case "--encode-threads": encodeThreads = number(args, ++i, a, 1, 256); break;
+                    case "--queue": queue = number(args, ++i, a, 1, 4096); break;
+                    case "--memory-mb": budget = (long) number(args, ++i, a, 16, Integer.MAX_VALUE) << 20; break;
+                    case "--help": case "-h":
+                        out.println(USAGE);
+                        return 0;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + a);
+                }
+            }
+            if (inputs.isEmpty() || target == null) throw new IllegalArgumentException("--in and --out are required");
+            if (!batch && inputs.size() > 1) throw new IllegalArgumentException("several --in need --batch");
+            if (batch && (scale > 0 || stream)) throw new IllegalArgumentException("--scale and --stream are not available with --batch");
+            if (scale > 0 && PackedRaster.enabled()) throw new IllegalArgumentException("--scale is not available with --offheap-mb");
+            if (scale > block) throw new IllegalArgumentException("--scale cannot exceed --block");
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+
+        boolean dialog = !dialogText.isEmpty() || !dialogName.isEmpty();
+        RenderParams p = new RenderParams(block, palette, dither, ghost, outline, border,
+            dialog, dialogStyle, dialogPos, dialogHeight, dialogWidth, dialogName, dialogText, fx)
+            .withGhost(ghostOffset, ghostOpacity / 100f, ghostTrails);
+        if (scale > 0 && !PngExport.canIndex(p)) {
+            err.println("--scale needs indexed output (no ghost, pixel effects or dialog)");
+            return 2;
+        }
+        RenderCache cache = null;
+        if (cacheDir != null) {
+            try {
+                cache = new RenderCache(cacheDir, cacheBytes);
+            } catch (IOException ex) {
+                err.println(ex.getMessage());
+                return 1;
+            }
+        }
+        if (batch) {
+            try {
+                List<File> files = expand(inputs);
+                if (!target.isDirectory() && !target.mkdirs()) throw new IllegalArgumentException("cannot create folder " + target);
+                BatchConverter.Summary summary = new BatchConverter(decodeThreads, processThreads, encodeThreads, queue, budget, cache)
+                    .run(files, target, p, out);
+                out.println(summary);
+                if (cache != null) out.println(cache.stats());
+                if (timings) err.print(RenderMetrics.report());
+                return summary.failed == 0 ? 0 : 1;
+            } catch (Exception ex) {
+                err.println("Batch failed: " + (ex.getMessage() != null ? ex.getMessage() : ex.toString()));
+                return 1;
+            }
+        }
+        File in = inputs.get(0);
+        try {
+            long t0 = System.nanoTime();
+            String key = cache != null ? RenderCache.key(RenderCache.digest(in), p, scale) : null;
+            String how;
+            if (key != null && cache.copyTo(key, target)) {
+                how = "cached";
+            } else {
+                how = convert(in, target, p, scale, stream);
+                if (key != null) cache.put(key, target);
+            }
+            out.println(in.getName() + " -> " + target.getName() + " (" + how + ", " + target.length() / 1024 + " KB) in "
+                + (System.nanoTime() - t0) / 1_000_000 + " ms");
+            if (timings) err.print(RenderMetrics.report());
+            return 0;
+        } catch (Exception ex) {
+            err.println("Failed to convert " + in + ": " + (ex.getMessage() != null ? ex.getMessage() : ex.toString()));
+            return 1;
+        }
+    }
+
+    /** Converts in to target and returns how it was written. */
+    static String convert(File in, File target, RenderParams p, int scale, boolean stream) throws Exception {
+        Dimension size = StreamingPixelator.probeSize(in);
+        if (size == null) throw new IllegalArgumentException("unsupported format");
+        if (stream || PackedRaster.enabled() || StreamingPixelator.recommended(size.width, size.height)) {
+            if (scale > 0) throw new IllegalArgumentException("--scale is not available when streaming");
+            return StreamingPixelator.convert(in, target, p, StreamingPixelator.DEFAULT_STRIP_PIXELS, PixelPipeline.NEVER_CANCELLED, pct -> {});
+        }
+        RenderMetrics.Span s = RenderMetrics.begin(RenderMetrics.DECODE, size.width, size.height, null);
+        // One render: summing each block directly is cheaper than building a table first
+        ImageDecoder.Decoded decoded = ImageDecoder.decode(in, 1, false, PixelPipeline.NEVER_CANCELLED, pct -> {});
+        s.end();
+        PixelPipeline.Rendered r = PixelPipeline.render(decoded.image, 1, size.width, size.height, null, p,
+            !PngExport.canIndex(p), PixelPipeline.NEVER_CANCELLED);
+        s = RenderMetrics.begin(RenderMetrics.ENCODE, size.width, size.height, p);
+        String how = PngExport.write(r.grid, r.image, p, scale, target);
+        s.end();
+        return how;
+    }
+
+    /** inputs with each folder replaced by the images directly inside it, in name order. */
+    static List<File> expand(List<File> inputs) {
+        List<File> files = new ArrayList<>();
+        for (File f : inputs) {
+            if (!f.isDirectory()) {
+                files.add(f);
+                continue;
+            }
+            File[] images = f.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).matches(".*\\.(png|jpe?g|bmp|gif)"));
+            if (images == null) throw new IllegalArgumentException("cannot list " + f);
+            Arrays.sort(images);
+            files.addAll(Arrays.asList(images));
+        }
+        return files;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[i];
+    }
+
+    private static int number(String[] args, int i, String option, int min, int max) {
+        return number(value(args, i, option), option, min, max);
+    }
+
+    /** v as an int between min and max, for option. */
+    static int number(String v, String option, int min, int max) {
+        try {
+            int n = Integer.parseInt(v);
+            if (n < min || n > max) throw new IllegalArgumentException(option + " must be between " + min + " and " + max);
+            return n;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(option + " expects a number, got " + v);
+        }
+    }
+
+    /** Index of v in names, matched ignoring case, spaces and punctuation ("pico8" is PICO-8), or v as an index. */
+    static int choice(String v, String[] names, String option) {
+        String key = normalise(v);
+        for (int i = 0; i < names.length; i++) {
+            if (normalise(names[i]).equals(key)) return i;
+        }
+        try {
+            int i = Integer.parseInt(v);
+            if (i >= 0 && i < names.length) return i;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException("Unknown " + option.replaceFirst("^--", "") + " " + v + "; expected one of " + String.join(", ", names));
+    }
+
+    private static String normalise(String s) {
+        return s.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+    }
+}
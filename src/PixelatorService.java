@@ -0,0 +1,410 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP rendering service, for tools that would otherwise shell out to {@link PixelatorCli}:
+ *
+ *   java -cp out PixelatorService --port 8077
+ *   curl --data-binary @photo.jpg "http://127.0.0.1:8077/pixelate?block=8&amp;palette=pico-8&amp;dither" -o photo.png
+ *
+ * POST /pixelate takes the image as the request body and the render settings as query
+ * parameters named like the command-line options (block, palette, dither, ghost,
+ * ghost-offset, ghost-opacity, ghost-trails, outline, border, fx, dialog-text,
+ * dialog-name, dialog-style, dialog-pos, dialog-height, dialog-width, scale), and
+ * answers with the PNG Save PNG would write. GET /health and GET /metrics report the
+ * pools and the stage timings.
+ *
+ * Requests are accepted on virtual threads where the JDK has them (21+, found by
+ * reflection so the service still runs on older JDKs, on a fixed pool instead). They
+ * only read the upload and wait: decoding, rendering and encoding run on a small
+ * bounded pool sized to the cores, and a request that finds that pool and its queue
+ * full is answered 429 at once instead of piling up. The server binds the loopback
+ * address only. With a {@link RenderCache}, an upload rendered before with the same
+ * settings is answered from disk without taking a render thread. {@link #handle} is the
+ * whole request logic without the server, so it can be exercised without a network.
+ */
+public final class PixelatorService {
+
+    /** Request threads when the JDK has no virtual threads; they mostly wait on the render pool. */
+    private static final int FALLBACK_REQUEST_THREADS = 64;
+    private static final String[] BOOLEAN_PARAMS = { "dither", "ghost", "outline" };
+
+    final int renderThreads, queueCapacity;
+    final long maxUploadBytes, maxPixels, timeoutMillis;
+    final RenderCache cache; // null for none
+    private final ThreadPoolExecutor renders;
+    private HttpServer server;
+    private ExecutorService requests;
+    private boolean virtualThreads;
+
+    PixelatorService(int renderThreads, int queueCapacity, long maxUploadBytes, long maxPixels, long timeoutMillis, RenderCache cache) {
+        this.renderThreads = renderThreads;
+        this.queueCapacity = queueCapacity;
+        this.maxUploadBytes = maxUploadBytes;
+        this.maxPixels = maxPixels;
+        this.timeoutMillis = timeoutMillis;
+        this.cache = cache;
+        AtomicInteger n = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "service-render-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // AbortPolicy: a full queue rejects the render, which the caller answers with 429
+        renders = new ThreadPoolExecutor(renderThreads, renderThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /** Defaults for this machine: half the cores render, two renders wait per thread, 64 MB uploads, 50 MP images, 60 s. */
+    static PixelatorService withDefaults() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return new PixelatorService(threads, 2 * threads, 64L << 20, 50_000_000L, 60_000, null);
+    }
+
+    /** One HTTP answer. */
+    static final class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+        final Map<String, String> headers = new LinkedHashMap<>();
+
+        Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Response text(int status, String message) {
+            return new Response(status, "text/plain; charset=utf-8", (message + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  REQUESTS
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Answers one request. query is the raw query string (null if none), body the
+     * upload and contentLength its declared length, or -1 if unknown.
+     */
+    Response handle(String method, String path, String query, InputStream body, long contentLength) {
+        switch (path) {
+            case "/pixelate":
+                if (!"POST".equals(method)) return Response.text(405, "Use POST with the image as the body").header("Allow", "POST");
+                return pixelate(query, body, contentLength);
+            case "/health":
+                return Response.text(200, "ok  renders running " + renders.getActiveCount() + "/" + renderThreads
+                    + ", queued " + renders.getQueue().size() + "/" + queueCapacity + (cache != null ? "\n" + cache.stats() : ""));
+            case "/metrics":
+                return Response.text(200, RenderMetrics.report().trim());
+            default:
+                return Response.text(404, "Not found; POST /pixelate, GET /health or GET /metrics");
+        }
+    }
+
+    private Response pixelate(String query, InputStream body, long contentLength) {
+        RenderParams p;
+        int scale;
+        try {
+            Map<String, String> q = parseQuery(query);
+            p = params(q);
+            scale = q.containsKey("scale") ? PixelatorCli.number(q.get("scale"), "scale", 1, p.blockSize) : 0;
+            if (scale > 0 && !PngExport.canIndex(p)) throw new IllegalArgumentException("scale needs indexed output (no ghost, pixel effects or dialog)");
+        } catch (IllegalArgumentException ex) {
+            return Response.text(400, ex.getMessage());
+        }
+        // Turn the request away before reading an upload there is no room to render,
+        // unless it could be a cache hit, which needs no render thread
+        if (cache == null && saturated()) return busy();
+        if (contentLength > maxUploadBytes) return tooLarge();
+        byte[] data;
+        try {
+            data = readAtMost(body, maxUploadBytes);
+        } catch (IOException ex) {
+            return Response.text(400, "Could not read the upload: " + ex.getMessage());
+        }
+        if (data == null) return tooLarge();
+        if (data.length == 0) return Response.text(400, "Send the image as the request body");
+        String key = cache != null ? RenderCache.key(RenderCache.digest(data), p, scale) : null;
+        if (key != null) {
+            byte[] png = cache.get(key);
+            if (png != null) return new Response(200, "image/png", png).header("X-Pixelator-Cache", "hit");
+        }
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Future<Response> render;
+        try {
+            render = renders.submit(() -> render(data, p, scale, cancelled));
+        } catch (RejectedExecutionException ex) {
+            return busy();
+        }
+        try {
+            Response r = render.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                cache.put(key, r.body);
+                r.header("X-Pixelator-Cache", "miss");
+            }
+            return r;
+        } catch (TimeoutException ex) {
+            cancelled.set(true);
+            render.cancel(false);
+            return Response.text(503, "Render took longer than " + timeoutMillis + " ms");
+        } catch (InterruptedException ex) {
+            cancelled.set(true);
+            render.cancel(false);
+            Thread.currentThread().interrupt();
+            return Response.text(503, "Interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            if (cause instanceof ImageDecoder.TooLargeException) return Response.text(413, message);
+            if (cause instanceof IOException || cause instanceof IllegalArgumentException) {
+                return Response.text(400, "Could not decode the image: " + message);
+            }
+            return Response.text(500, "Render failed: " + message);
+        }
+    }
+
+    /** Runs on the render pool: decode, render and encode one upload. */
+    private Response render(byte[] data, RenderParams p, int scale, AtomicBoolean cancelled) throws IOException {
+        ImageDecoder.Decoded decoded = ImageDecoder.decode(data, maxPixels, cancelled::get);
+        int w = decoded.image.getWidth(), h = decoded.image.getHeight();
+        PixelPipeline.Rendered r = PixelPipeline.render(decoded.image, 1, w, h, null, p, !PngExport.canIndex(p), cancelled::get);
+        RenderMetrics.Span s = RenderMetrics.begin(RenderMetrics.ENCODE, w, h, p);
+        ByteArrayOutputStream png = new ByteArrayOutputStream(Math.max(1 << 12, data.length / 4));
+        String how = PngExport.write(r.grid, r.image, p, scale, png);
+        s.end();
+        return new Response(200, "image/png", png.toByteArray()).header("X-Pixelator-Output", how);
+    }
+
+    private boolean saturated() {
+        return renders.getActiveCount() >= renderThreads && renders.getQueue().remainingCapacity() == 0;
+    }
+
+    private static Response busy() {
+        return Response.text(429, "All render threads are busy; try again shortly").header("Retry-After", "1");
+    }
+
+    private Response tooLarge() {
+        return Response.text(413, "Upload is over " + maxUploadBytes + " bytes");
+    }
+
+    /** The stream's bytes, or null if there are more than max. */
+    private static byte[] readAtMost(InputStream in, long max) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+        byte[] buf = new byte[1 << 16];
+        long total = 0;
+        for (int n; (n = in.read(buf)) > 0; ) {
+            total += n;
+            if (total > max) return null;
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** Render settings from query parameters, with the command line's names and defaults. */
+    static RenderParams params(Map<String, String> q) {
+        for (String name : q.keySet()) {
+            if (!name.matches("block|palette|dither|ghost(-offset|-opacity|-trails)?|outline|border|fx|scale|dialog-(text|name|style|pos|height|width)")) {
+                throw new IllegalArgumentException("Unknown parameter " + name);
+            }
+        }
+        boolean[] flags = new boolean[BOOLEAN_PARAMS.length];
+        for (int i = 0; i < flags.length; i++) flags[i] = flag(q, BOOLEAN_PARAMS[i]);
+        String dialogText = q.getOrDefault("dialog-text", "").replace("\\n", "\n");
+        String dialogName = q.getOrDefault("dialog-name", "");
+        return new RenderParams(
+            q.containsKey("block") ? PixelatorCli.number(q.get("block"), "block", 1, SummedAreaTable.MAX_BLOCK) : 16,
+            q.containsKey("palette") ? PixelatorCli.choice(q.get("palette"), Palettes.NAMES, "palette") : 0,
+            flags[0], flags[1], flags[2],
+            q.containsKey("border") ? PixelatorCli.choice(q.get("border"), RenderParams.BORDER_NAMES, "border") : 0,
+            !dialogText.isEmpty() || !dialogName.isEmpty(),
+            q.containsKey("dialog-style") ? PixelatorCli.choice(q.get("dialog-style"), PixelatorCli.DIALOG_STYLES, "dialog-style") : 0,
+            q.containsKey("dialog-pos") ? PixelatorCli.number(q.get("dialog-pos"), "dialog-pos", 0, 100) : 80,
+            q.containsKey("dialog-height") ? PixelatorCli.number(q.get("dialog-height"), "dialog-height", 10, 50) : 20,
+            q.containsKey("dialog-width") ? PixelatorCli.number(q.get("dialog-width"), "dialog-width", 10, 100) : 90,
+            dialogName, dialogText, FxChain.parseNames(q.getOrDefault("fx", "")))
+            .withGhost(
+                q.containsKey("ghost-offset") ? PixelatorCli.number(q.get("ghost-offset"), "ghost-offset", 1, SummedAreaTable.MAX_BLOCK) : PixelPipeline.GHOST_OFFSET,
+                q.containsKey("ghost-opacity") ? PixelatorCli.number(q.get("ghost-opacity"), "ghost-opacity", 0, 100) / 100f : PixelPipeline.GHOST_ALPHA,
+                q.containsKey("ghost-trails") ? PixelatorCli.number(q.get("ghost-trails"), "ghost-trails", 1, 16) : PixelPipeline.GHOST_TRAILS);
+    }
+
+    /** A present parameter with no value, or 1/true/yes/on, is true; 0/false/no/off is false. */
+    private static boolean flag(Map<String, String> q, String name) {
+        String v = q.get(name);
+        if (v == null) return false;
+        switch (v.toLowerCase(java.util.Locale.ROOT)) {
+            case "": case "1": case "true": case "yes": case "on": return true;
+            case "0": case "false": case "no": case "off": return false;
+            default: throw new IllegalArgumentException(name + " expects true or false, got " + v);
+        }
+    }
+
+    static Map<String, String> parseQuery(String query) {
+        Map<String, String> q = new LinkedHashMap<>();
+        if (query == null || query.isEmpty()) return q;
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            q.put(decode(eq < 0 ? pair : pair.substring(0, eq)), eq < 0 ? "" : decode(pair.substring(eq + 1)));
+        }
+        return q;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed query parameter " + s);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  SERVER
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    /** Starts listening on 127.0.0.1:port (0 picks a free port); returns the port. */
+    synchronized int start(int port) throws IOException {
+        if (server != null) throw new IllegalStateException("Already started");
+        requests = virtualThreadExecutor();
+        virtualThreads = requests != null;
+        if (requests == null) {
+            AtomicInteger n = new AtomicInteger();
+            requests = Executors.newFixedThreadPool(FALLBACK_REQUEST_THREADS, r -> {
+                Thread t = new Thread(r, "service-request-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(requests);
+        server.createContext("/", this::exchange);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /** Stops accepting, gives requests in progress up to delaySeconds to finish, then stops the pools. */
+    synchronized void stop(int delaySeconds) {
+        if (server != null) {
+            server.stop(delaySeconds);
+            requests.shutdown();
+            server = null;
+        }
+        renders.shutdown();
+    }
+
+    private void exchange(HttpExchange ex) throws IOException {
+        try {
+            long length = -1;
+            String declared = ex.getRequestHeaders().getFirst("Content-Length");
+            if (declared != null) {
+                try {
+                    length = Long.parseLong(declared.trim());
+                } catch (NumberFormatException ignored) {}
+            }
+            Response r = handle(ex.getRequestMethod(), ex.getRequestURI().getPath(), ex.getRequestURI().getRawQuery(),
+                ex.getRequestBody(), length);
+            r.headers.forEach(ex.getResponseHeaders()::set);
+            ex.getResponseHeaders().set("Content-Type", r.contentType);
+            ex.sendResponseHeaders(r.status, r.body.length > 0 ? r.body.length : -1);
+            if (r.body.length > 0) ex.getResponseBody().write(r.body);
+        } finally {
+            ex.close();
+        }
+    }
+
+    /** A virtual thread per task on JDK 21+, else null. */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Missing before JDK 19, and a preview feature that throws on 19 and 20
+            return null;
+        }
+    }
+
+    private static final String USAGE = String.join("\n",
+        "Usage: java -cp out PixelatorService [options]",
+        "  --port <n>              port on 127.0.0.1 (default 8077, 0 for any free port)",
+        "  --render-threads <n>    renders at once (default half the cores)",
+        "  --queue <n>             renders waiting before requests get 429 (default twice the threads)",
+        "  --max-upload-mb <n>     largest upload (default 64)",
+        "  --max-megapixels <n>    largest image (default 50)",
+        "  --timeout-s <n>         longest render before 503 (default 60)",
+        "  --cache <folder>        answer repeated uploads and settings from this folder",
+        "  --cache-mb <n>          cache size before the least recently used go (default 1024)",
+        "  --help");
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        PixelatorService defaults = withDefaults();
+        int port = 8077, threads = defaults.renderThreads, queue = -1;
+        long upload = defaults.maxUploadBytes, pixels = defaults.maxPixels, timeout = defaults.timeoutMillis;
+        File cacheDir = null;
+        long cacheBytes = 1L << 30;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (a.equals("--help") || a.equals("-h")) {
+                    System.out.println(USAGE);
+                    return;
+                }
+                if (i + 1 >= args.length) throw new IllegalArgumentException(a + " needs a value");
+                String v = args[++i];
+                switch (a) {
+                    case "--port": port = PixelatorCli.number(v, a, 0, 65535); break;
+                    case "--render-threads": threads = PixelatorCli.number(v, a, 1, 256); break;
+                    case "--queue": queue = PixelatorCli.number(v, a, 1, 4096); break;
+                    case "--max-upload-mb": upload = (long) PixelatorCli.number(v, a, 1, 1 << 20) << 20; break;
+                    case "--max-megapixels": pixels = PixelatorCli.number(v, a, 1, 1 << 20) * 1_000_000L; break;
+                    case "--timeout-s": timeout = PixelatorCli.number(v, a, 1, 86_400) * 1000L; break;
+                    case "--cache": cacheDir = new File(v); break;
+                    case "--cache-mb": cacheBytes = (long) PixelatorCli.number(v, a, 1, Integer.MAX_VALUE) << 20; break;
+                    default: throw new IllegalArgumentException("Unknown option " + a);
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        RenderCache cache = cacheDir != null ? new RenderCache(cacheDir, cacheBytes) : null;
+        PixelatorService service = new PixelatorService(threads, queue > 0 ? queue : 2 * threads, upload, pixels, timeout, cache);
+        int bound = service.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> service.stop(1), "service-stop"));
+        System.out.println("Pixelator service on http://127.0.0.1:" + bound + "/  ("
+            + (service.virtualThreads ? "virtual threads" : FALLBACK_REQUEST_THREADS + " request threads")
+            + ", " + threads + " render threads, queue " + service.queueCapacity + ")");
+    }
+}
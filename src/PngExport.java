@@ -0,0 +1,193 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * PNG export of a finished render.
+ *
+ * Without ghost or dialog every pixel is a palette colour, the outline colour or the
+ * border colour, so the file is written as an indexed PNG (4 bits per pixel for up to
+ * 16 colours) straight from the block grid, a band of rows at a time, never building
+ * the full-resolution image. The grid can also be written at its native block
+ * resolution, one scale×scale square per block. Ghost and dialog blend in colours of
+ * their own, as do plugin effects unless they keep to the palette (see
+ * {@link FxStage#keepsPalette}), so those renders are written as truecolour.
+ */
+final class PngExport {
+
+    private static final int BAND_ROWS = 64;
+
+    private PngExport() {}
+
+    /** True if a render with these settings only contains colours from {@link #colours}. */
+    static boolean canIndex(RenderParams p) {
+        return !p.hasDialog() && FxChain.of(p, 1).keepsPalette();
+    }
+
+    /** PLTE for an indexed export: the palette, then the outline and border colours if used and not in it. */
+    static int[] colours(RenderParams p) {
+        int[] palette = Palettes.RGB[p.paletteIndex];
+        int[] out = Arrays.copyOf(palette, palette.length + 2);
+        int n = palette.length;
+        if (p.outline) n = addColour(out, n, PixelPipeline.outlineColor(palette));
+        if (p.borderMode > 0) n = addColour(out, n, PixelPipeline.borderColor(p.borderMode));
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int addColour(int[] colours, int n, int rgb) {
+        for (int i = 0; i < n; i++) if (colours[i] == rgb) return n;
+        colours[n] = rgb;
+        return n + 1;
+    }
+
+    /**
+     * Writes grid, framed by p's border, as an indexed PNG. scale 0 writes it at full
+     * resolution; scale ≥ 1 at native block resolution times scale.
+     */
+    static void writeIndexed(BlockGrid grid, RenderParams p, int scale, File out) throws IOException {
+        boolean ok = false;
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out), 1 << 16)) {
+                writeIndexed(grid, p, scale, os);
+            }
+            ok = true;
+        } finally {
+            if (!ok) out.delete();
+        }
+    }
+
+    /** {@link #writeIndexed(BlockGrid, RenderParams, int, File)} to a stream, which is left open. */
+    static void writeIndexed(BlockGrid grid, RenderParams p, int scale, OutputStream out) throws IOException {
+        if (!canIndex(p)) throw new IllegalArgumentException("Ghost, dialog and pixel effect output needs truecolour");
+        BlockGrid g = scale > 0 ? grid.scaledTo(scale) : grid;
+        int[] colours = colours(p);
+        int bw = p.borderMode > 0 ? PixelPipeline.BORDER_WIDTH : 0;
+        byte border = bw > 0 ? index(colours, PixelPipeline.borderColor(p.borderMode)) : 0;
+        int outW = g.width + 2 * bw;
+        int outH = g.height + 2 * bw;
+        int[] rgb = new int[g.width * BAND_ROWS];
+        byte[] idx = new byte[outW * BAND_ROWS];
+        try (PngWriter png = new PngWriter(new NonClosing(out), outW, outH, colours)) {
+            if (bw > 0) {
+                Arrays.fill(idx, 0, outW * bw, border);
+                png.writeIndexRows(idx, 0, outW, bw);
+            }
+            for (int y0 = 0; y0 < g.height; y0 += BAND_ROWS) {
+                int rows = Math.min(BAND_ROWS, g.height - y0);
+                g.expandRegion(0, y0, g.width, rows, rgb, 0, g.width);
+                for (int y = 0; y < rows; y++) {
+                    int o = y * outW;
+                    Arrays.fill(idx, o, o + bw, border);
+                    Arrays.fill(idx, o + bw + g.width, o + outW, border);
+                    toIndices(rgb, y * g.width, g.width, colours, idx, o + bw);
+                }
+                png.writeIndexRows(idx, 0, outW, rows);
+            }
+            if (bw > 0) {
+                Arrays.fill(idx, 0, outW * bw, border);
+                png.writeIndexRows(idx, 0, outW, bw);
+            }
+        }
+    }
+
+    /**
+     * Writes a render to out the way the editor saves it: indexed when {@link #canIndex},
+     * at scale×scale per block if scale &gt; 0, else truecolour with the dialog drawn on.
+     * image is the full-resolution render if ghost or border produced one, else null.
+     * Returns a short description of what was written.
+     */
+    static String write(BlockGrid grid, BufferedImage image, RenderParams p, int scale, File out) throws IOException {
+        boolean ok = false;
+        try {
+            String how;
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out), 1 << 16)) {
+                how = write(grid, image, p, scale, os);
+            }
+            ok = true;
+            return how;
+        } finally {
+            if (!ok) out.delete();
+        }
+    }
+
+    /** {@link #write(BlockGrid, BufferedImage, RenderParams, int, File)} to a stream, which is left open. */
+    static String write(BlockGrid grid, BufferedImage image, RenderParams p, int scale, OutputStream out) throws IOException {
+        if (canIndex(p)) {
+            writeIndexed(grid, p, scale, out);
+            return "indexed, " + colours(p).length + " colours" + (scale > 0 ? ", " + scale + " px per block" : "");
+        }
+        BufferedImage toSave = image != null ? image : grid.expand();
+        if (p.hasDialog()) {
+            RenderMetrics.Span s = RenderMetrics.begin(RenderMetrics.DIALOG, grid.width, grid.height, p);
+            toSave = DialogRenderer.applyDialogToImage(toSave, p.dialogName, p.dialogText, p.dialogStyle, p.dialogVerticalPos, p.dialogBoxHeight, p.dialogBoxWidthPct);
+            s.end();
+        }
+        writeTruecolour(toSave, out);
+        return "truecolour";
+    }
+
+    /** Writes img as a truecolour PNG. */
+    static void writeTruecolour(BufferedImage img, File out) throws IOException {
+        boolean ok = false;
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(out), 1 << 16)) {
+                writeTruecolour(img, os);
+            }
+            ok = true;
+        } finally {
+            if (!ok) out.delete();
+        }
+    }
+
+    /** Writes img as a truecolour PNG to a stream, which is left open. */
+    static void writeTruecolour(BufferedImage img, OutputStream out) throws IOException {
+        img = PixelPipeline.toIntRgb(img);
+        try (PngWriter png = new PngWriter(new NonClosing(out), img.getWidth(), img.getHeight())) {
+            png.writeRows(PixelPipeline.pixels(img), 0, img.getWidth(), img.getHeight());
+        }
+    }
+
+    /** Passes writes through but only flushes on close, so a PngWriter can finish into a stream it does not own. */
+    private static final class NonClosing extends FilterOutputStream {
+        NonClosing(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /** Maps n pixels from rgb[from] to their indices in colours, written from idx[to]. */
+    static void toIndices(int[] rgb, int from, int n, int[] colours, byte[] idx, int to) {
+        if (n == 0) return;
+        int lastRgb = rgb[from] ^ 1;
+        byte lastIdx = 0;
+        for (int i = 0; i < n; i++) {
+            int c = rgb[from + i];
+            if (c != lastRgb) {
+                lastRgb = c;
+                lastIdx = index(colours, c);
+            }
+            idx[to + i] = lastIdx;
+        }
+    }
+
+    /** Index of rgb in colours; the render only ever contains colours from the list. */
+    static byte index(int[] colours, int rgb) {
+        rgb &= 0xFFFFFF;
+        for (int i = 0; i < colours.length; i++) if (colours[i] == rgb) return (byte) i;
+        throw new IllegalStateException(String.format("Colour %06X is not in the export palette", rgb));
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Minimal streaming PNG encoder: rows go in top to bottom and are filtered, deflated and
+ * flushed as IDAT chunks as they arrive, so memory use does not depend on image height.
+ *
+ * Writes 8-bit truecolour (colour type 2), or indexed colour (type 3) at 4 bits per
+ * pixel for up to 16 colours and 8 bits up to 256. Truecolour rows get the PNG filter
+ * (None, Sub, Up, Average, Paeth) with the smallest sum of absolute residuals, the same
+ * heuristic ImageIO's PNG writer uses; indexed rows are left unfiltered, as the PNG
+ * spec recommends for palette images.
+ */
+final class PngWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int IDAT_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final int bpp;
+    private final boolean indexed;
+    private final int bitDepth;
+    private final IdatStream idatSink = new IdatStream();
+    private final DeflaterOutputStream idat;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private byte[] prev;
+    private byte[] cur;
+    private final byte[][] filtered = new byte[5][];
+    private int rowsWritten;
+    private boolean closed;
+
+    /** A truecolour PNG. */
+    PngWriter(OutputStream os, int width, int height) throws IOException {
+        this(os, width, height, null);
+    }
+
+    /** An indexed PNG with the given 0xRRGGBB palette (1 to 256 entries), or truecolour if palette is null. */
+    PngWriter(OutputStream os, int width, int height, int[] palette) throws IOException {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid PNG size " + width + "×" + height);
+        if (palette != null && (palette.length == 0 || palette.length > 256)) throw new IllegalArgumentException("Invalid palette size " + palette.length);
+        this.out = new DataOutputStream(os);
+        this.width = width;
+        this.height = height;
+        this.indexed = palette != null;
+        this.bitDepth = !indexed ? 8 : palette.length <= 16 ? 4 : 8;
+        this.bpp = indexed ? 1 : 3;
+        int rowBytes = indexed ? (width * bitDepth + 7) / 8 : width * 3;
+        prev = new byte[rowBytes];
+        cur = new byte[rowBytes];
+        for (int f = 0; f < filtered.length; f++) filtered[f] = new byte[rowBytes + 1];
+
+        out.write(SIGNATURE);
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+        DataOutputStream d = new DataOutputStream(ihdr);
+        d.writeInt(width);
+        d.writeInt(height);
+        d.writeByte(bitDepth);
+        d.writeByte(indexed ? 3 : 2);  // colour type: indexed or truecolour
+        d.writeByte(0);  // deflate
+        d.writeByte(0);  // adaptive filtering
+        d.writeByte(0);  // no interlace
+        writeChunk("IHDR", ihdr.toByteArray(), ihdr.size());
+        if (indexed) {
+            byte[] plte = new byte[palette.length * 3];
+            for (int i = 0, j = 0; i < palette.length; i++) {
+                plte[j++] = (byte) (palette[i] >> 16);
+                plte[j++] = (byte) (palette[i] >> 8);
+                plte[j++] = (byte) palette[i];
+            }
+            writeChunk("PLTE", plte, plte.length);
+        }
+        idat = new DeflaterOutputStream(idatSink, deflater, IDAT_SIZE);
+    }
+
+    /** Appends rows of 0xRRGGBB pixels (alpha bits ignored) starting at px[offset], stride ints apart. */
+    void writeRows(int[] px, int offset, int stride, int rows) throws IOException {
+        if (indexed) throw new IllegalStateException("Indexed PNG takes palette indices");
+        if (rowsWritten + rows > height) throw new IOException("Too many rows: " + (rowsWritten + rows) + " > " + height);
+        for (int r = 0; r < rows; r++) {
+            int src = offset + r * stride;
+            for (int x = 0, i = 0; x < width; x++) {
+                int rgb = px[src + x];
+                cur[i++] = (byte) (rgb >> 16);
+                cur[i++] = (byte) (rgb >> 8);
+                cur[i++] = (byte) rgb;
+            }
+            writeFiltered();
+        }
+    }
+
+    /** Appends rows of palette indices starting at idx[offset], stride bytes apart. */
+    void writeIndexRows(byte[] idx, int offset, int stride, int rows) throws IOException {
+        if (!indexed) throw new IllegalStateException("Truecolour PNG takes RGB pixels");
+        if (rowsWritten + rows > height) throw new IOException("Too many rows: " + (rowsWritten + rows) + " > " + height);
+        byte[] o = filtered[0];
+        o[0] = 0; // filter: None
+        for (int r = 0; r < rows; r++) {
+            int src = offset + r * stride;
+            if (bitDepth == 8) {
+                System.arraycopy(idx, src, o, 1, width);
+            } else {
+                int i = 1, x = 0;
+                for (; x + 1 < width; x += 2) o[i++] = (byte) ((idx[src + x] << 4) | (idx[src + x + 1] & 0x0F));
+                if (x < width) o[i] = (byte) (idx[src + x] << 4);
+            }
+            idat.write(o, 0, cur.length + 1);
+            rowsWritten++;
+        }
+    }
+
+    private void writeFiltered() throws IOException {
+        int n = cur.length;
+        long bestSum = Long.MAX_VALUE;
+        int best = 0;
+        for (int f = 0; f < filtered.length; f++) {
+            byte[] o = filtered[f];
+            o[0] = (byte) f;
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                int b = prev[i] & 0xFF;
+                int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                int x = cur[i] & 0xFF;
+                int v;
+                switch (f) {
+                    case 1: v = x - a; break;
+                    case 2: v = x - b; break;
+                    case 3: v = x - ((a + b) >> 1); break;
+                    case 4: v = x - paeth(a, b, c); break;
+                    default: v = x;
+                }
+                o[i + 1] = (byte) v;
+                sum += Math.abs((byte) v);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = f;
+            }
+        }
+        idat.write(filtered[best], 0, n + 1);
+        byte[] t = prev;
+        prev = cur;
+        cur = t;
+        rowsWritten++;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    /** Finishes the image data and writes IEND. Fails if fewer rows than the header promised were written. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (rowsWritten != height) throw new IOException("Only " + rowsWritten + " of " + height + " rows written");
+            idat.finish();
+            idatSink.flush();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int len) throws IOException {
+        byte[] t = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(data, 0, len);
+        out.writeInt(len);
+        out.write(t);
+        out.write(data, 0, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /** Collects compressed bytes and emits them as IDAT chunks of up to IDAT_SIZE bytes. */
+    private final class IdatStream extends OutputStream {
+        private final byte[] buf = new byte[IDAT_SIZE];
+        private int len;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (len == buf.length) flushChunk();
+            buf[len++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int n) throws IOException {
+            while (n > 0) {
+                if (len == buf.length) flushChunk();
+                int k = Math.min(n, buf.length - len);
+                System.arraycopy(b, off, buf, len, k);
+                len += k;
+                off += k;
+                n -= k;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (len > 0) flushChunk();
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk("IDAT", buf, len);
+            len = 0;
+        }
+    }
+}
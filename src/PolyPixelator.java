@@ -7,142 +7,62 @@ import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.concurrent.atomic.AtomicBoolean;
-import javax.imageio.ImageIO;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Poly Pixelator — Windows 95/98 aesthetic (Sora's Pixel Converter style).
  *
  * Pipeline: Load -> True Block Downsampling (N×N avg) -> Redmean Palette Mapping
  * -> Optional 8×8 Bayer Ordered Dithering -> Optional Ghost / Outline FX
- * All processing uses BufferedImage with no external libraries.
+ * The stages themselves live in {@link PixelPipeline}; this class is the Swing UI.
+ * No external libraries.
  */
 public class PolyPixelator extends JFrame {
 
-    // ═══════════════════════════════════════════════════════════════════════════
-    // PALETTES
-    // ═══════════════════════════════════════════════════════════════════════════
-
-    private static final Color[] PALETTE_FRUTIGER_AERO = {
-        new Color(0x1a, 0x3d, 0x5c), new Color(0x2d, 0x6b, 0x9a), new Color(0x4a, 0x9f, 0xd4),
-        new Color(0x7e, 0xb8, 0xda), new Color(0xa8, 0xcf, 0xe8), new Color(0xd0, 0xe8, 0xf5),
-        new Color(0xec, 0xf4, 0xfa), new Color(0xff, 0xff, 0xff),
-        new Color(0x2e, 0xcc, 0x71), new Color(0x34, 0x98, 0xdb), new Color(0x9b, 0x59, 0xb6),
-        new Color(0xe7, 0x4c, 0x3c), new Color(0xf3, 0x9c, 0x12), new Color(0x1a, 0xbc, 0x9c),
-        new Color(0xfd, 0xad, 0xb9), new Color(0xb8, 0xe0, 0xf0),
-    };
-
-    private static final Color[] PALETTE_PICO8 = {
-        new Color(0x00, 0x00, 0x00), new Color(0x1d, 0x2b, 0x53), new Color(0x7e, 0x25, 0x53),
-        new Color(0x00, 0x87, 0x51), new Color(0xab, 0x52, 0x36), new Color(0x5f, 0x57, 0x4f),
-        new Color(0xc2, 0xc3, 0xc7), new Color(0xff, 0xf1, 0xe8), new Color(0xff, 0x00, 0x4d),
-        new Color(0xff, 0xa3, 0x00), new Color(0xff, 0xec, 0x27), new Color(0x00, 0xe4, 0x36),
-        new Color(0x29, 0xad, 0xff), new Color(0x83, 0x76, 0x9c), new Color(0xff, 0x77, 0xa8),
-        new Color(0xff, 0xcc, 0xaa),
-    };
-
-    private static final Color[] PALETTE_CGA = {
-        new Color(0x00, 0x00, 0x00), new Color(0x55, 0x55, 0x55), new Color(0xaa, 0xaa, 0xaa),
-        new Color(0xff, 0xff, 0xff), new Color(0x00, 0x00, 0xaa), new Color(0x55, 0x55, 0xff),
-        new Color(0x00, 0xaa, 0x00), new Color(0x55, 0xff, 0x55), new Color(0x00, 0xaa, 0xaa),
-        new Color(0x55, 0xff, 0xff), new Color(0xaa, 0x00, 0x00), new Color(0xff, 0x55, 0x55),
-        new Color(0xaa, 0x00, 0xaa), new Color(0xff, 0x55, 0xff), new Color(0xaa, 0x55, 0x00),
-        new Color(0xff, 0xff, 0x55),
-    };
-
-    private static final Color[] PALETTE_C64 = {
-        new Color(0x00, 0x00, 0x00), new Color(0xff, 0xff, 0xff), new Color(0x88, 0x39, 0x32),
-        new Color(0x67, 0xb6, 0xbd), new Color(0x8b, 0x3f, 0x96), new Color(0x55, 0xa0, 0x49),
-        new Color(0x40, 0x31, 0x8d), new Color(0xbf, 0xce, 0x72), new Color(0x8b, 0x54, 0x29),
-        new Color(0x57, 0x42, 0x00), new Color(0xb8, 0x69, 0x62), new Color(0x50, 0x50, 0x50),
-        new Color(0x78, 0x78, 0x78), new Color(0x94, 0xe0, 0x89), new Color(0x78, 0x69, 0xc4),
-        new Color(0x9f, 0x9f, 0x9f),
-    };
-
-    private static final Color[] PALETTE_WINDOWS95 = {
-        new Color(0x00, 0x00, 0x00), new Color(0x00, 0x80, 0x80), new Color(0x80, 0x00, 0x00),
-        new Color(0x00, 0x00, 0x80), new Color(0x80, 0x80, 0x00), new Color(0x80, 0x00, 0x80),
-        new Color(0x00, 0x80, 0x00), new Color(0x80, 0x80, 0x80), new Color(0xc0, 0xc0, 0xc0),
-        new Color(0x00, 0xff, 0xff), new Color(0xff, 0x00, 0x00), new Color(0x00, 0x00, 0xff),
-        new Color(0xff, 0xff, 0x00), new Color(0xff, 0x00, 0xff), new Color(0x00, 0xff, 0x00),
-        new Color(0xff, 0xff, 0xff),
-    };
-
-    private static final Color[] PALETTE_VAPORWAVE = {
-        new Color(0x0d, 0x02, 0x22), new Color(0x1a, 0x05, 0x3d), new Color(0x2d, 0x0a, 0x5c),
-        new Color(0x4b, 0x0d, 0x8a), new Color(0xff, 0x71, 0xce), new Color(0x01, 0xcd, 0xfe),
-        new Color(0x05, 0xff, 0xa1), new Color(0xb9, 0x67, 0xff), new Color(0xff, 0xfb, 0x96),
-        new Color(0xff, 0x6e, 0xb4), new Color(0x7d, 0xf9, 0xff), new Color(0x39, 0xff, 0x14),
-        new Color(0xe0, 0xac, 0x69), new Color(0x94, 0x00, 0xd3), new Color(0x00, 0x00, 0x80),
-        new Color(0xff, 0x14, 0x93),
-    };
-
-    private static final Color[] PALETTE_APPLEII = {
-        new Color(0x00, 0x00, 0x00), new Color(0x55, 0x55, 0x55), new Color(0xff, 0xff, 0xff),
-        new Color(0x00, 0x88, 0x00), new Color(0x00, 0xff, 0x00), new Color(0x00, 0x00, 0xff),
-        new Color(0x55, 0x55, 0xff), new Color(0xff, 0x00, 0x00), new Color(0xff, 0x55, 0x55),
-        new Color(0xff, 0x88, 0x00), new Color(0xff, 0xff, 0x00), new Color(0x88, 0x00, 0x88),
-        new Color(0xff, 0x00, 0xff), new Color(0x00, 0x88, 0x88), new Color(0x00, 0xff, 0xff),
-        new Color(0xaa, 0xaa, 0xaa),
-    };
-
-    private static final Color[] PALETTE_CYBERPUNK = {
-        new Color(0x0a, 0x0a, 0x12), new Color(0x12, 0x12, 0x25), new Color(0x1e, 0x1e, 0x3c),
-        new Color(0x2a, 0x2a, 0x50), new Color(0xff, 0x00, 0x99), new Color(0x00, 0xff, 0xee),
-        new Color(0xff, 0x66, 0x00), new Color(0x99, 0x00, 0xff), new Color(0x00, 0xcc, 0xff),
-        new Color(0xff, 0x00, 0xff), new Color(0x33, 0xff, 0x99), new Color(0xff, 0xcc, 0x00),
-        new Color(0x66, 0x33, 0xff), new Color(0xff, 0x33, 0x66), new Color(0x66, 0xff, 0xff),
-        new Color(0xff, 0xff, 0x00),
-    };
-
-    private static final Color[] PALETTE_MONOCHROME = {
-        new Color(0x00, 0x00, 0x00), new Color(0x11, 0x11, 0x11), new Color(0x22, 0x22, 0x22),
-        new Color(0x33, 0x33, 0x33), new Color(0x44, 0x44, 0x44), new Color(0x55, 0x55, 0x55),
-        new Color(0x66, 0x66, 0x66), new Color(0x77, 0x77, 0x77), new Color(0x88, 0x88, 0x88),
-        new Color(0x99, 0x99, 0x99), new Color(0xaa, 0xaa, 0xaa), new Color(0xbb, 0xbb, 0xbb),
-        new Color(0xcc, 0xcc, 0xcc), new Color(0xdd, 0xdd, 0xdd), new Color(0xee, 0xee, 0xee),
-        new Color(0xff, 0xff, 0xff),
-    };
-
-    private static final Color[][] PALETTES = {
-        PALETTE_FRUTIGER_AERO, PALETTE_PICO8, PALETTE_CGA,
-        PALETTE_C64, PALETTE_WINDOWS95, PALETTE_VAPORWAVE, PALETTE_APPLEII,
-        PALETTE_CYBERPUNK, PALETTE_MONOCHROME,
-    };
-    private static final String[] PALETTE_NAMES = {
-        "Frutiger Aero", "PICO-8", "CGA", "C64",
-        "Windows 95", "Vaporwave", "Apple II", "Cyberpunk", "Monochrome",
-    };
-
     private static final Color WIN_GRAY = new Color(0xC0, 0xC0, 0xC0);
     private static final Color NAVY = new Color(0x00, 0x00, 0x80);
     private static final Font WIN_FONT = new Font("Dialog", Font.PLAIN, 12);
-
-    private static final int[][] BAYER_8X8 = {
-        {  0, 32,  8, 40,  2, 34, 10, 42 },
-        { 48, 16, 56, 24, 50, 18, 58, 26 },
-        { 12, 44,  4, 36, 14, 46,  6, 38 },
-        { 60, 28, 52, 20, 62, 30, 54, 22 },
-        {  3, 35, 11, 43,  1, 33,  9, 41 },
-        { 51, 19, 59, 27, 49, 17, 57, 25 },
-        { 15, 47,  7, 39, 13, 45,  5, 37 },
-        { 63, 31, 55, 23, 61, 29, 53, 21 },
-    };
+    /** Sources below this many pixels render at full resolution straight away. */
+    private static final long PREVIEW_MIN_PIXELS = 1 << 22;
+    /** Coarse previews never go below this many pixels, however small the window. */
+    private static final long PREVIEW_MIN_BUDGET = 1 << 18;
 
     // ═══════════════════════════════════════════════════════════════════════════
     // STATE
     // ═══════════════════════════════════════════════════════════════════════════
 
-    private BufferedImage originalImage;
-    private BufferedImage processedImage;
+    private BufferedImage originalImage;  // source as decoded for editing: 1/sourceScale of full size per axis
+    private File sourceFile;
+    private int sourceScale = 1;          // decode subsampling, see ImageDecoder
+    private int sourceWidth, sourceHeight; // full-resolution size
+    private SummedAreaTable sourceSat; // integral image of originalImage once built, else null (EDT-only)
+    private SwingWorker<SummedAreaTable, Void> satJob;
+    private LoadJob loadJob;               // decode in progress, if any (EDT-only)
+    private JDialog timingsDialog;         // created on first use
+    // Last render without the dialog overlay, which is composited separately (EDT-only)
+    private BlockGrid processedGrid;       // at block resolution
+    private BufferedImage processedImage;  // at decode resolution if ghost/border were applied, else null
+    private RenderParams processedParams;  // snapshot it was rendered from, dialog fields included
+    private BufferedImage processedSource; // source it was rendered from
+    // Renders draw ghost into these by turns, so the one on screen is never the one being drawn (EDT-only)
+    private final BufferedImage[] ghostImages = new BufferedImage[2];
+    private int ghostTurn;                 // the one the last finished render drew into
     private volatile int blockSize = 16;
     private volatile boolean ditherEnabled = false;
     private volatile boolean ghostEnabled = false;
     private volatile boolean outlineEnabled = false;
+    private final java.util.Set<String> pluginFx = new java.util.HashSet<>(); // plugin FxStages switched on (EDT-only)
     private volatile int paletteIndex = 0;
-    private final AtomicBoolean processing = new AtomicBoolean(false);
+    // Render scheduling (EDT-only): at most one job runs, newer requests replace the pending one
+    private RenderJob renderJob;
+    private RenderParams pendingParams;
+    // All-palettes strip (EDT-only): the latest job filling it, kept to tell when what it shows changes
+    private PaletteStripJob stripJob;
+    private JToggleButton[] paletteButtons;
 
     private final ImageCanvas canvas;
+    private final PaletteStrip paletteStrip;
     private final JLabel statusLabel;
     private volatile String backgroundMode = "greenish"; // "greenish" (default) or "checkered"
 
@@ -154,7 +74,6 @@ public class PolyPixelator extends JFrame {
     private volatile int dialogBoxWidthPct = 90; // % of usable width; lower = narrower box
     private JTextField dialogNameField;
     private JTextArea dialogTextArea;
-    private javax.swing.Timer dialogDebounceTimer;
 
     // Border option: 0=off, 1=black/white, 2=navy
     private volatile int borderMode = 0;
@@ -176,6 +95,12 @@ public class PolyPixelator extends JFrame {
         canvasScroll.setBorder(BorderFactory.createBevelBorder(BevelBorder.LOWERED));
         canvasScroll.setViewportView(new CheckerboardCanvasContainer(canvas));
         canvasScroll.getViewport().setBackground(WIN_GRAY);
+        canvasScroll.getViewport().addComponentListener(new java.awt.event.ComponentAdapter() {
+            @Override
+            public void componentResized(java.awt.event.ComponentEvent e) {
+                canvas.viewportResized();
+            }
+        });
 
         centerWrap.add(canvasScroll, BorderLayout.CENTER);
 
@@ -186,6 +111,7 @@ public class PolyPixelator extends JFrame {
         JPanel rightContent = new JPanel(new BorderLayout(0, 4));
         rightContent.setOpaque(false);
         rightContent.add(createTitledSection("Background colours", createBackgroundOptions()), BorderLayout.CENTER);
+        rightContent.add(createTitledSection("Zoom", createZoomOptions()), BorderLayout.SOUTH);
         rightSidebar.add(rightContent, BorderLayout.CENTER);
         centerWrap.add(rightSidebar, BorderLayout.EAST);
 
@@ -200,8 +126,11 @@ public class PolyPixelator extends JFrame {
         loadBtn.addActionListener(e -> loadImage());
         JButton saveBtn = createWinButton("Save PNG");
         saveBtn.addActionListener(e -> saveImage());
+        JButton timingsBtn = createWinButton("Timings");
+        timingsBtn.addActionListener(e -> showTimings());
         fileSection.add(loadBtn);
         fileSection.add(saveBtn);
+        fileSection.add(timingsBtn);
         bottomDock.add(fileSection);
 
         addDockSeparator(bottomDock);
@@ -222,7 +151,7 @@ public class PolyPixelator extends JFrame {
 
         addDockSeparator(bottomDock);
 
-        // FX — Dither, Ghost, Outline
+        // FX — Dither, Ghost, Outline, and any installed effects
         JPanel fxContent = createGrayPanel();
         JToggleButton ditherBtn = createWinToggleButton("Dither");
         ditherBtn.addActionListener(e -> {
@@ -242,6 +171,16 @@ public class PolyPixelator extends JFrame {
         fxContent.add(ditherBtn);
         fxContent.add(ghostBtn);
         fxContent.add(outlineBtn);
+        // One more per effect found on the class path (see FxStage)
+        for (String name : FxChain.pluginNames()) {
+            JToggleButton btn = createWinToggleButton(name);
+            btn.addActionListener(e -> {
+                if (btn.isSelected()) pluginFx.add(name);
+                else pluginFx.remove(name);
+                scheduleProcess();
+            });
+            fxContent.add(btn);
+        }
         bottomDock.add(createTitledSection("FX", fxContent));
 
         addDockSeparator(bottomDock);
@@ -288,6 +227,15 @@ public class PolyPixelator extends JFrame {
         JPanel southContainer = new SwitchableBackgroundPanel(new BorderLayout(0, 0), () -> backgroundMode);
         southContainer.add(bottomDock, BorderLayout.CENTER);
 
+        // All palettes at a glance, above the dock; clicking a thumbnail picks that palette
+        paletteStrip = new PaletteStrip(i -> paletteButtons[i].doClick());
+        JScrollPane stripScroll = new JScrollPane(paletteStrip);
+        stripScroll.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+        stripScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
+        stripScroll.setBorder(BorderFactory.createBevelBorder(BevelBorder.LOWERED));
+        stripScroll.getViewport().setBackground(WIN_GRAY);
+        southContainer.add(createTitledSection("All palettes", stripScroll), BorderLayout.NORTH);
+
         statusLabel = new JLabel(" Ready — load an image to begin");
         statusLabel.setFont(WIN_FONT);
         statusLabel.setForeground(Color.BLACK);
@@ -300,6 +248,15 @@ public class PolyPixelator extends JFrame {
         southContainer.add(statusLabel, BorderLayout.SOUTH);
         root.add(southContainer, BorderLayout.SOUTH);
 
+        // Esc abandons a load in progress; the current image stays
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("ESCAPE"), "cancelLoad");
+        root.getActionMap().put("cancelLoad", new AbstractAction() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                if (loadJob != null) loadJob.cancel(false);
+            }
+        });
+
         setContentPane(root);
         setSize(1000, 680);
         setMinimumSize(new Dimension(760, 500));
@@ -373,6 +330,35 @@ public class PolyPixelator extends JFrame {
         return content;
     }
 
+    /** −, +, 1:1 and Fit; Ctrl + mouse wheel zooms around the pointer. */
+    private JPanel createZoomOptions() {
+        JPanel content = new JPanel(new GridLayout(2, 2, 6, 6));
+        content.setOpaque(false);
+        content.setBorder(BorderFactory.createEmptyBorder(8, 8, 4, 8));
+        JButton outBtn = createWinButton("−");
+        outBtn.addActionListener(e -> canvas.zoomBy(-1));
+        JButton inBtn = createWinButton("+");
+        inBtn.addActionListener(e -> canvas.zoomBy(1));
+        JButton actualBtn = createWinButton("1:1");
+        actualBtn.addActionListener(e -> canvas.setActualSize());
+        JButton fitBtn = createWinButton("Fit");
+        fitBtn.addActionListener(e -> canvas.setFit());
+        content.add(outBtn);
+        content.add(inBtn);
+        content.add(actualBtn);
+        content.add(fitBtn);
+        JLabel zoomLabel = new JLabel("100%", SwingConstants.CENTER);
+        zoomLabel.setFont(WIN_FONT);
+        zoomLabel.setBorder(BorderFactory.createEmptyBorder(0, 0, 6, 0));
+        canvas.setZoomListener(() -> zoomLabel.setText(
+            (canvas.isFit() ? "Fit: " : "") + String.format(canvas.getZoom() < 0.1 ? "%.1f%%" : "%.0f%%", canvas.getZoom() * 100)));
+        JPanel wrap = new JPanel(new BorderLayout());
+        wrap.setOpaque(false);
+        wrap.add(content, BorderLayout.CENTER);
+        wrap.add(zoomLabel, BorderLayout.SOUTH);
+        return wrap;
+    }
+
     private JPanel createDialogPanelBottom() {
         JPanel content = createGrayPanel();
 
@@ -496,11 +482,9 @@ public class PolyPixelator extends JFrame {
         return content;
     }
 
+    /** Text edits only redraw the overlay on the cached render, so no debounce is needed. */
     private void scheduleDialogRedraw() {
-        if (dialogDebounceTimer != null) dialogDebounceTimer.stop();
-        dialogDebounceTimer = new Timer(200, e -> scheduleProcess());
-        dialogDebounceTimer.setRepeats(false);
-        dialogDebounceTimer.start();
+        scheduleProcess();
     }
 
     private void addDockSeparator(JPanel dock) {
@@ -517,13 +501,16 @@ public class PolyPixelator extends JFrame {
     private JPanel createPaletteGrid() {
         JPanel grid = new PatternedPanel(new FlowLayout(FlowLayout.LEFT, 6, 4));
         ButtonGroup palGroup = new ButtonGroup();
-        for (int i = 0; i < PALETTES.length; i++) {
-            JToggleButton btn = new Win95PaletteButton(PALETTE_NAMES[i], PALETTES[i]);
+        paletteButtons = new JToggleButton[Palettes.PALETTES.length];
+        for (int i = 0; i < Palettes.PALETTES.length; i++) {
+            JToggleButton btn = new Win95PaletteButton(Palettes.NAMES[i], Palettes.PALETTES[i]);
             final int idx = i;
             btn.addActionListener(e -> {
                 paletteIndex = idx;
+                paletteStrip.setSelected(idx);
                 scheduleProcess();
             });
+            paletteButtons[i] = btn;
             palGroup.add(btn);
             grid.add(btn);
             if (i == 0) btn.setSelected(true);
@@ -539,406 +526,607 @@ public class PolyPixelator extends JFrame {
         JFileChooser fc = new JFileChooser();
         fc.setFileFilter(new FileNameExtensionFilter("Images (png, jpg, bmp, gif)", "png", "jpg", "jpeg", "bmp", "gif"));
         if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fc.getSelectedFile();
+        Dimension size;
+        int sub;
         try {
-            BufferedImage raw = ImageIO.read(fc.getSelectedFile());
-            if (raw == null) throw new Exception("Unsupported format");
-            int w = raw.getWidth();
-            int h = raw.getHeight();
-            if (w <= 0 || h <= 0) throw new Exception("Invalid image dimensions");
-            originalImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-            Graphics2D g = originalImage.createGraphics();
-            g.drawImage(raw, 0, 0, null);
-            g.dispose();
-            statusLabel.setText(" Loaded: " + fc.getSelectedFile().getName() + "  (" + originalImage.getWidth() + " × " + originalImage.getHeight() + ")");
-            scheduleProcess();
+            size = StreamingPixelator.probeSize(file);
+            if (size == null) throw new Exception("Unsupported format");
+            sub = ImageDecoder.subsamplingFor(size.width, size.height, blockSize, canvas.displayPixels(size.width, size.height));
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Failed to load image:\n" + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (StreamingPixelator.recommended(size.width / sub, size.height / sub)) {
+            int choice = JOptionPane.showConfirmDialog(this,
+                "This image is " + size.width + " × " + size.height + " and may not fit in memory.\n"
+                    + "Convert it straight to a PNG file in strips with the current settings instead?",
+                "Large image", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+            if (choice == JOptionPane.CANCEL_OPTION || choice == JOptionPane.CLOSED_OPTION) return;
+            if (choice == JOptionPane.YES_OPTION) {
+                streamConvert(file);
+                return;
+            }
         }
+        // A newer load replaces one still decoding
+        if (loadJob != null) loadJob.cancel(false);
+        loadJob = new LoadJob(file, size, sub);
+        loadJob.execute();
     }
 
-    private void saveImage() {
-        if (processedImage == null) {
-            JOptionPane.showMessageDialog(this, "No processed image to save.", "Info", JOptionPane.INFORMATION_MESSAGE);
-            return;
+    /**
+     * Decodes a chosen file off the EDT, building its summed-area table from the rows as
+     * they are decoded, with the reader's progress in the status bar. The current image
+     * stays on screen and editable until the new one is complete; cancelling (Esc, or a
+     * newer load) aborts the reader.
+     */
+    private class LoadJob extends SwingWorker<ImageDecoder.Decoded, Integer> {
+        private final File file;
+        private final Dimension size;
+        private final int sub;
+        private final long t0 = System.nanoTime();
+
+        LoadJob(File file, Dimension size, int sub) {
+            this.file = file;
+            this.size = size;
+            this.sub = sub;
+            statusLabel.setText(" Loading " + file.getName() + " …  (Esc cancels)");
         }
-        JFileChooser fc = new JFileChooser();
-        fc.setSelectedFile(new File("pixelated.png"));
-        if (fc.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+
+        @Override
+        protected ImageDecoder.Decoded doInBackground() throws Exception {
+            RenderMetrics.Span s = RenderMetrics.begin(RenderMetrics.DECODE, size.width, size.height, null);
+            ImageDecoder.Decoded decoded = ImageDecoder.decode(file, sub, true, this::isCancelled, this::publish);
+            s.end();
+            return decoded;
+        }
+
+        @Override
+        protected void process(java.util.List<Integer> chunks) {
+            if (loadJob != this || isCancelled()) return;
+            statusLabel.setText(" Loading " + file.getName() + " … " + chunks.get(chunks.size() - 1) + "%  (Esc cancels)");
+        }
+
+        @Override
+        protected void done() {
+            if (loadJob != this) return; // replaced by a newer load
+            loadJob = null;
+            if (isCancelled()) {
+                statusLabel.setText(" Loading " + file.getName() + " cancelled");
+                return;
+            }
+            ImageDecoder.Decoded decoded;
             try {
-                BufferedImage toSave = processedImage;
-                if (dialogEnabled && dialogNameField != null && dialogTextArea != null) {
-                    String nm = dialogNameField.getText();
-                    String tx = dialogTextArea.getText();
-                    if (!nm.isEmpty() || !tx.isEmpty()) {
-                        toSave = applyDialogToImage(processedImage, nm, tx, dialogStyle, dialogVerticalPos, dialogBoxHeight, dialogBoxWidthPct);
-                    }
-                }
-                ImageIO.write(toSave, "png", fc.getSelectedFile());
-                statusLabel.setText(" Saved to " + fc.getSelectedFile().getName());
+                decoded = get();
             } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Failed to save:\n" + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+                statusLabel.setText(" Loading " + file.getName() + " failed");
+                JOptionPane.showMessageDialog(PolyPixelator.this, "Failed to load image:\n" + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            originalImage = decoded.image;
+            sourceFile = file;
+            sourceScale = sub;
+            sourceWidth = size.width;
+            sourceHeight = size.height;
+            if (decoded.sat != null) {
+                if (satJob != null) satJob.cancel(false);
+                satJob = null;
+                sourceSat = decoded.sat;
+            } else {
+                buildSummedAreaTable(originalImage);
             }
+            statusLabel.setText(" Loaded: " + file.getName() + "  (" + size.width + " × " + size.height + ") in "
+                + (System.nanoTime() - t0) / 1_000_000 + " ms"
+                + (sub > 1 ? "  |  editing a 1/" + sub + " decode, saving re-reads the full image" : ""));
+            scheduleProcess();
         }
     }
 
-    private BufferedImage applyDialogToImage(BufferedImage src, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct) {
-        if (name == null) name = "";
-        if (text == null) text = "";
-        if (name.isEmpty() && text.isEmpty()) return src;
-        BufferedImage out = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2 = out.createGraphics();
-        g2.drawImage(src, 0, 0, null);
-        drawDialogOntoGraphics(g2, src.getWidth(), src.getHeight(), name, text, style, verticalPos, boxHeightPct, boxWidthPct);
-        g2.dispose();
-        return out;
+    /** Streaming mode: converts a too-large source straight to a PNG without loading it. */
+    private void streamConvert(File source) {
+        JFileChooser fc = new JFileChooser();
+        fc.setSelectedFile(new File("pixelated.png"));
+        if (fc.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        streamConvert(source, fc.getSelectedFile(), snapshotParams());
     }
 
-    private void drawDialogOntoGraphics(Graphics2D g2, int imgW, int imgH, String name, String text, int style, int verticalPos, int boxHeightPct, int boxWidthPct) {
-        int baseMargin = Math.max(40, (int)(imgW * 0.05));
-        int usableW = imgW - 2 * baseMargin;
-        int boxW = Math.max(80, (int)(usableW * boxWidthPct / 100.0));
-        int boxX = baseMargin + (usableW - boxW) / 2;
-        int boxY = (int) (imgH * (verticalPos / 100.0));
-        int lineH = Math.max(14, imgH / 25);
-        int padding = lineH / 2;
-        int boxH = Math.max(lineH * 2 + padding * 2, (int) (imgH * boxHeightPct / 100.0));
-        boxY = Math.max(0, Math.min(boxY, imgH - boxH - padding));
-
-        // Name: strip trailing colon/whitespace for all styles
-        String displayName = name.replaceFirst("[:\\s]+$", "").trim();
-        // Text: strip leading "> " markers
-        String displayText = text.replaceFirst("^\\s*>\\s*", "");
-
-        int fontSize = Math.max(10, Math.min(24, imgH / 20));
-        Font textFont = (style == 4)
-            ? new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(10, Math.min(20, imgH / 25)))
-            : new Font(Font.MONOSPACED, Font.PLAIN, fontSize);
-        g2.setFont(textFont);
-        FontMetrics fm = g2.getFontMetrics();
-
-        // Count content lines for vertical centering
-        String[] textLines = displayText.split("\n");
-        int numLines = 0;
-        if (!displayName.isEmpty()) numLines++;
-        for (String line : textLines) {
-            String trimmed = line.replaceFirst("^\\s*>\\s*", "");
-            if (!trimmed.isEmpty()) numLines++;
-        }
-        if (numLines == 0 && !displayText.isEmpty()) numLines = 1;
-        int nameGap = (!displayName.isEmpty() && numLines > 1) ? lineH / 3 : 0;
-        int totalContentH = numLines * lineH + nameGap;
-        int startY = boxY + (boxH - totalContentH) / 2 + fm.getAscent();
-        int textX = boxX + padding + 3;
-
-        if (style == 0 || style == 1 || style == 2 || style == 3) {
-            // Filled box styles: JRPG Blue(0), JRPG Black(1), Classic(2), Modern(3)
-            Color fillColor;
-            if (style == 1 || style == 2) fillColor = Color.BLACK;
-            else if (style == 3) fillColor = new Color(0x2a, 0x2a, 0x2a);
-            else fillColor = new Color(0x00, 0x20, 0x60);
-            g2.setColor(fillColor);
-            g2.fillRect(boxX, boxY, boxW, boxH);
-            g2.setColor(Color.WHITE);
-            g2.setStroke(new BasicStroke(3));
-            g2.drawRect(boxX + 2, boxY + 2, boxW - 4, boxH - 4);
-            g2.setStroke(new BasicStroke(1));
-            g2.setFont(textFont);
-
-            int curY = startY;
-            if (!displayName.isEmpty()) {
-                Color nameColor = (style == 3) ? new Color(0xaa, 0xcc, 0xff) : Color.YELLOW;
-                g2.setColor(nameColor);
-                g2.drawString(displayName, textX, curY);
-                curY += lineH + nameGap;
+    /** Converts source to target in strips on a background thread, with progress in the status bar. */
+    private void streamConvert(File source, File target, RenderParams params) {
+        statusLabel.setText(" Streaming " + source.getName() + " …");
+        new SwingWorker<Long, Integer>() {
+            @Override
+            protected Long doInBackground() throws Exception {
+                long t0 = System.nanoTime();
+                StreamingPixelator.convert(source, target, params, StreamingPixelator.DEFAULT_STRIP_PIXELS,
+                    PixelPipeline.NEVER_CANCELLED, this::publish);
+                return (System.nanoTime() - t0) / 1_000_000;
             }
-            g2.setColor(Color.WHITE);
-            for (String line : textLines) {
-                String trimmed = line.replaceFirst("^\\s*>\\s*", "");
-                if (curY > boxY + boxH - padding) break;
-                g2.drawString(trimmed, textX, curY);
-                curY += lineH;
+
+            @Override
+            protected void process(java.util.List<Integer> chunks) {
+                statusLabel.setText(" Streaming " + source.getName() + " … " + chunks.get(chunks.size() - 1) + "%");
             }
 
-        } else if (style == 4) {
-            // Terminal: semi-transparent black box, green text
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.75f));
-            g2.setColor(Color.BLACK);
-            g2.fillRect(boxX, boxY, boxW, boxH);
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1f));
-            g2.setFont(textFont);
-            g2.setColor(new Color(0x00, 0xFF, 0x00));
-
-            int curY = startY;
-            if (!displayName.isEmpty()) {
-                g2.drawString(displayName, textX, curY);
-                curY += lineH + nameGap;
+            @Override
+            protected void done() {
+                try {
+                    statusLabel.setText(" Streamed " + source.getName() + " to " + target.getName() + " in " + get() + " ms");
+                } catch (Exception ex) {
+                    Throwable cause = ex instanceof ExecutionException ? ex.getCause() : ex;
+                    statusLabel.setText(" Streaming failed");
+                    JOptionPane.showMessageDialog(PolyPixelator.this, "Failed to convert image:\n" + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
             }
-            for (String line : textLines) {
-                String trimmed = line.replaceFirst("^\\s*>\\s*", "");
-                if (curY > boxY + boxH - padding) break;
-                g2.drawString(trimmed, textX, curY);
-                curY += lineH;
+        }.execute();
+    }
+
+    /**
+     * Builds the integral image in the background for a source whose table could not be
+     * built while it was decoding. Renders that start before it is ready simply sum the
+     * pixels directly.
+     */
+    private void buildSummedAreaTable(BufferedImage source) {
+        sourceSat = null;
+        if (satJob != null) satJob.cancel(false);
+        satJob = new SwingWorker<SummedAreaTable, Void>() {
+            @Override
+            protected SummedAreaTable doInBackground() {
+                return SummedAreaTable.build(source, this::isCancelled);
             }
 
-        } else if (style == 5) {
-            // Ghost: no background, white text with thick black outline for readability
-            g2.setFont(textFont);
-            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            @Override
+            protected void done() {
+                if (isCancelled() || originalImage != source) return;
+                try {
+                    sourceSat = get();
+                } catch (Exception ignored) {}
+            }
+        };
+        satJob.execute();
+    }
 
-            int curY = startY;
-            if (!displayName.isEmpty()) {
-                drawOutlinedString(g2, displayName, textX, curY, Color.YELLOW, Color.BLACK, 2);
-                curY += lineH + nameGap;
+    private void saveImage() {
+        if (processedGrid == null) {
+            JOptionPane.showMessageDialog(this, "No processed image to save.", "Info", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        RenderParams p = processedParams;
+        boolean indexed = PngExport.canIndex(p);
+        boolean fullDecode = sourceScale > 1; // the edited render came from a subsampled decode
+        JFileChooser fc = new JFileChooser();
+        fc.setSelectedFile(new File("pixelated.png"));
+        // Palette-only renders can also be saved at one pixel (or scale×scale) per block
+        JCheckBox nativeCheck = new JCheckBox("One square per block");
+        JSpinner scaleSpinner = new JSpinner(new SpinnerNumberModel(1, 1, p.blockSize, 1));
+        nativeCheck.setFont(WIN_FONT);
+        nativeCheck.setEnabled(indexed && !fullDecode);
+        scaleSpinner.setEnabled(false);
+        nativeCheck.addActionListener(e -> scaleSpinner.setEnabled(nativeCheck.isSelected()));
+        JPanel options = new JPanel(new GridLayout(0, 1, 0, 4));
+        options.setBorder(BorderFactory.createTitledBorder("Export"));
+        JLabel modeLabel = new JLabel((indexed ? "Indexed, " + PngExport.colours(p).length + " colours" : "Truecolour (ghost/dialog)")
+            + (fullDecode ? ", from full image" : ""));
+        modeLabel.setFont(WIN_FONT);
+        JPanel scaleRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        JLabel scaleLabel = new JLabel("Square size px:");
+        scaleLabel.setFont(WIN_FONT);
+        scaleRow.add(scaleLabel);
+        scaleRow.add(scaleSpinner);
+        options.add(modeLabel);
+        options.add(nativeCheck);
+        options.add(scaleRow);
+        fc.setAccessory(options);
+        if (fc.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File target = fc.getSelectedFile();
+            if (fullDecode) {
+                streamConvert(sourceFile, target, p);
+                return;
             }
-            for (String line : textLines) {
-                String trimmed = line.replaceFirst("^\\s*>\\s*", "");
-                if (curY > boxY + boxH - padding) break;
-                drawOutlinedString(g2, trimmed, textX, curY, Color.WHITE, Color.BLACK, 2);
-                curY += lineH;
+            try {
+                int scale = nativeCheck.isSelected() ? (Integer) scaleSpinner.getValue() : 0;
+                String how = PngExport.write(processedGrid, processedImage, p, scale, target);
+                statusLabel.setText(" Saved to " + target.getName() + " (" + how + ", " + target.length() / 1024 + " KB)");
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Failed to save:\n" + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
         }
     }
 
-    private void drawOutlinedString(Graphics2D g2, String str, int x, int y, Color fill, Color outline, int thickness) {
-        g2.setColor(outline);
-        for (int dx = -thickness; dx <= thickness; dx++) {
-            for (int dy = -thickness; dy <= thickness; dy++) {
-                if (dx != 0 || dy != 0) g2.drawString(str, x + dx, y + dy);
-            }
+    /** Non-modal window with the per-stage latency percentiles, refreshed while it is open. */
+    private void showTimings() {
+        if (timingsDialog == null) {
+            JTextArea table = new JTextArea(12, 66);
+            table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            table.setEditable(false);
+            Timer refresh = new Timer(500, e -> table.setText(RenderMetrics.report()));
+            refresh.setInitialDelay(0);
+            JButton dumpBtn = createWinButton("Dump…");
+            dumpBtn.addActionListener(e -> {
+                JFileChooser fc = new JFileChooser();
+                fc.setSelectedFile(new File("pixelator-timings.txt"));
+                if (fc.showSaveDialog(timingsDialog) != JFileChooser.APPROVE_OPTION) return;
+                try {
+                    RenderMetrics.dump(fc.getSelectedFile());
+                    statusLabel.setText(" Timings written to " + fc.getSelectedFile().getName());
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(timingsDialog, "Failed to write timings:\n" + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            });
+            JButton resetBtn = createWinButton("Reset");
+            resetBtn.addActionListener(e -> {
+                RenderMetrics.reset();
+                table.setText(RenderMetrics.report());
+            });
+            JPanel buttons = createGrayPanel();
+            buttons.add(dumpBtn);
+            buttons.add(resetBtn);
+            timingsDialog = new JDialog(this, "Stage timings (ms)", false);
+            timingsDialog.getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+            timingsDialog.getContentPane().add(buttons, BorderLayout.SOUTH);
+            timingsDialog.addComponentListener(new java.awt.event.ComponentAdapter() {
+                @Override
+                public void componentShown(java.awt.event.ComponentEvent e) {
+                    refresh.start();
+                }
+
+                @Override
+                public void componentHidden(java.awt.event.ComponentEvent e) {
+                    refresh.stop();
+                }
+            });
+            timingsDialog.pack();
+            timingsDialog.setLocationRelativeTo(this);
         }
-        g2.setColor(fill);
-        g2.drawString(str, x, y);
+        timingsDialog.setVisible(true);
     }
 
     // ═══════════════════════════════════════════════════════════════════════════
-    // PROCESSING (unchanged — Redmean, block downsampling, Bayer dither)
+    // PROCESSING (stages in PixelPipeline — Redmean, block downsampling, Bayer dither)
     // ═══════════════════════════════════════════════════════════════════════════
 
+    /**
+     * Latest-wins scheduling: snapshot the controls, and if a render is still running,
+     * park the snapshot (replacing any older one) and ask the running job to stop.
+     * The parked snapshot starts as soon as that job's background thread has exited.
+     */
     private void scheduleProcess() {
         if (originalImage == null) return;
-        if (!processing.compareAndSet(false, true)) return;
-
-        final int block = blockSize;
-        final boolean dither = ditherEnabled;
-        final boolean ghost = ghostEnabled;
-        final boolean outline = outlineEnabled;
-        final int brdMode = borderMode;
-        final int palIdx = paletteIndex;
-        final boolean dlgOn = dialogEnabled;
-        final int dlgStyle = dialogStyle;
-        final int dlgVert = dialogVerticalPos;
-        final int dlgBoxH = dialogBoxHeight;
-        final int dlgBoxW = dialogBoxWidthPct;
-        final String dlgName = dialogNameField != null ? dialogNameField.getText() : "";
-        final String dlgText = dialogTextArea != null ? dialogTextArea.getText() : "";
-
-        SwingWorker<BufferedImage, Void> worker = new SwingWorker<BufferedImage, Void>() {
-            @Override
-            protected BufferedImage doInBackground() {
-                long t0 = System.nanoTime();
-                BufferedImage downsampled = downsampleBlocks(originalImage, block);
-                BufferedImage result = applyPaletteWithDither(downsampled, PALETTES[palIdx], dither);
-                if (outline) result = applyOutline(result, block, PALETTES[palIdx]);
-                if (ghost) result = applyGhost(result, 10, 10, 0.3f);
-                if (brdMode > 0) result = applyBorder(result, brdMode);
-                if (dlgOn && (!dlgName.isEmpty() || !dlgText.isEmpty())) {
-                    result = applyDialogToImage(result, dlgName, dlgText, dlgStyle, dlgVert, dlgBoxH, dlgBoxW);
-                }
-                long ms = (System.nanoTime() - t0) / 1_000_000;
-                String[] brdNames = {"OFF", "B/W", "Navy"};
-                final String msg = " Processed in " + ms + " ms  |  Block: " + block + "px  |  Dither: " + (dither ? "ON" : "OFF") + "  |  Ghost: " + (ghost ? "ON" : "OFF") + "  |  Outline: " + (outline ? "ON" : "OFF") + "  |  Border: " + brdNames[brdMode] + "  |  Palette: " + PALETTE_NAMES[palIdx];
-                SwingUtilities.invokeLater(() -> statusLabel.setText(msg));
-                return result;
-            }
+        schedulePaletteStrip();
+        RenderParams params = snapshotParams();
+        if (renderJob != null) {
+            pendingParams = params;
+            // A job computing the same base is worth finishing: the next one reuses it
+            if (!renderJob.p.sameBase(params)) renderJob.supersede();
+            return;
+        }
+        startRender(params);
+    }
 
-            @Override
-            protected void done() {
-                try {
-                    processedImage = get();
-                    canvas.setImage(processedImage);
-                } catch (Exception ignored) {}
-                processing.set(false);
-            }
-        };
-        worker.execute();
+    private RenderParams snapshotParams() {
+        return new RenderParams(blockSize, paletteIndex, ditherEnabled, ghostEnabled, outlineEnabled, borderMode,
+            dialogEnabled, dialogStyle, dialogVerticalPos, dialogBoxHeight, dialogBoxWidthPct,
+            dialogNameField != null ? dialogNameField.getText() : "",
+            dialogTextArea != null ? dialogTextArea.getText() : "",
+            FxChain.pluginNames().stream().filter(pluginFx::contains).toArray(String[]::new));
     }
 
-    private BufferedImage downsampleBlocks(BufferedImage src, int blockSize) {
-        int w = src.getWidth();
-        int h = src.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-
-        for (int by = 0; by < h; by += blockSize) {
-            for (int bx = 0; bx < w; bx += blockSize) {
-                int bw = Math.min(blockSize, w - bx);
-                int bh = Math.min(blockSize, h - by);
-                long rSum = 0, gSum = 0, bSum = 0;
-                int count = bw * bh;
-
-                for (int y = by; y < by + bh; y++) {
-                    for (int x = bx; x < bx + bw; x++) {
-                        int rgb = src.getRGB(x, y);
-                        rSum += (rgb >> 16) & 0xFF;
-                        gSum += (rgb >> 8) & 0xFF;
-                        bSum += rgb & 0xFF;
-                    }
-                }
+    private void startRender(RenderParams params) {
+        boolean reuse = processedSource == originalImage && processedParams != null && processedParams.sameBase(params);
+        renderJob = reuse
+            ? new RenderJob(originalImage, params, processedGrid, processedImage)
+            : new RenderJob(originalImage, sourceScale, sourceWidth, sourceHeight, sourceSat, params, previewFactor(sourceWidth, sourceHeight));
+        renderJob.execute();
+    }
 
-                int avgR = (int) (rSum / count);
-                int avgG = (int) (gSum / count);
-                int avgB = (int) (bSum / count);
-                int avgRgb = (avgR << 16) | (avgG << 8) | avgB;
+    /**
+     * Power-of-two reduction that brings the source down to roughly the number of screen
+     * pixels it will cover at the current zoom, or 1 (no coarse preview) for sources
+     * small enough to render at full resolution right away.
+     */
+    private int previewFactor(int w, int h) {
+        long pixels = (long) w * h;
+        if (pixels < PREVIEW_MIN_PIXELS) return 1;
+        long budget = Math.max(PREVIEW_MIN_BUDGET, canvas.displayPixels(w, h));
+        int f = 1;
+        while (pixels / ((long) f * f) > budget) f <<= 1;
+        return f;
+    }
 
-                for (int y = by; y < by + bh; y++) {
-                    for (int x = bx; x < bx + bw; x++) {
-                        out.setRGB(x, y, avgRgb);
-                    }
-                }
-            }
+    /**
+     * Restarts the all-palettes strip if something it shows has changed: the source, the
+     * block size or dithering. Picking a palette leaves it alone. Strip passes are cheap,
+     * so the old job is just told to stop rather than waited for.
+     */
+    private void schedulePaletteStrip() {
+        PaletteStripJob job = stripJob;
+        if (job != null && job.source == originalImage && job.blockSize == blockSize && job.dither == ditherEnabled) return;
+        if (job != null) job.supersede();
+        stripJob = new PaletteStripJob(originalImage, sourceScale, sourceSat, blockSize, ditherEnabled);
+        stripJob.execute();
+    }
+
+    /** Called on the EDT once a job's background work has really finished (or aborted). */
+    private void renderFinished(RenderJob job) {
+        if (renderJob != job) return;
+        renderJob = null;
+        if (pendingParams != null) {
+            RenderParams next = pendingParams;
+            pendingParams = null;
+            startRender(next);
         }
-        return out;
     }
 
-    private BufferedImage applyPaletteWithDither(BufferedImage src, Color[] palette, boolean dither) {
-        int w = src.getWidth();
-        int h = src.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-
-        for (int by = 0; by < h; by += blockSize) {
-            for (int bx = 0; bx < w; bx += blockSize) {
-                int bw = Math.min(blockSize, w - bx);
-                int bh = Math.min(blockSize, h - by);
-                long rSum = 0, gSum = 0, bSum = 0;
-                int count = bw * bh;
-                for (int y = by; y < by + bh; y++) {
-                    for (int x = bx; x < bx + bw; x++) {
-                        int rgb = src.getRGB(x, y);
-                        rSum += (rgb >> 16) & 0xFF;
-                        gSum += (rgb >> 8) & 0xFF;
-                        bSum += rgb & 0xFF;
-                    }
-                }
-                float avgR = (float) rSum / count;
-                float avgG = (float) gSum / count;
-                float avgB = (float) bSum / count;
-
-                if (dither) {
-                    float t = (BAYER_8X8[by % 8][bx % 8] / 64.0f) - 0.5f;
-                    float bias = t * 48f;
-                    avgR = clamp(avgR + bias);
-                    avgG = clamp(avgG + bias);
-                    avgB = clamp(avgB + bias);
-                }
+    /**
+     * One render of one parameter snapshot; stops cooperatively once superseded.
+     * The block stages stay at grid resolution; the grid is only expanded here when a
+     * pixel-level stage (ghost, border) needs it, and then only to the resolution the
+     * source was decoded at, which the canvas stretches to full size.
+     *
+     * The dialog is never baked in: it is drawn onto a patch holding just the base
+     * pixels it covers, which the canvas paints on top. A job built on the previous
+     * render's base (same parameters apart from the dialog) only redraws that patch.
+     *
+     * For large sources a coarse pass on a 1/previewFactor mip level is published
+     * first, so the canvas reacts within a frame or two; the full render replaces it.
+     */
+    private class RenderJob extends SwingWorker<BlockGrid, BufferedImage> {
+        private final BufferedImage source;
+        private final int scale;        // source decode subsampling
+        private final int fullW, fullH; // full-resolution size of the source
+        private final SummedAreaTable sat;
+        private final RenderParams p;
+        private final int previewFactor;
+        private final boolean reusedBase;
+        private final int turn;             // ghostImages slot this job draws into
+        private BufferedImage target;       // that slot's image, or a new one if it does not fit
+        private volatile boolean superseded;
+        private BlockGrid grid;
+        private BufferedImage image;
+        private BufferedImage overlay;
+        private Rectangle overlayBounds;
+        private String statusMsg;
+
+        RenderJob(BufferedImage source, int scale, int fullW, int fullH, SummedAreaTable sat, RenderParams p, int previewFactor) {
+            this.source = source;
+            this.scale = scale;
+            this.fullW = fullW;
+            this.fullH = fullH;
+            this.sat = sat;
+            this.p = p;
+            this.previewFactor = previewFactor;
+            this.reusedBase = false;
+            this.turn = 1 - ghostTurn;
+            this.target = ghostImages[turn];
+        }
 
-                Color nearest = findNearestRedmean(avgR, avgG, avgB, palette);
-                int rgb = nearest.getRGB();
+        /** A dialog-only job on top of an existing base render. */
+        RenderJob(BufferedImage source, RenderParams p, BlockGrid baseGrid, BufferedImage baseImage) {
+            this.source = source;
+            this.scale = 1;
+            this.fullW = baseGrid.width;
+            this.fullH = baseGrid.height;
+            this.sat = null;
+            this.p = p;
+            this.previewFactor = 1;
+            this.reusedBase = true;
+            this.turn = -1;
+            this.grid = baseGrid;
+            this.image = baseImage;
+        }
 
-                for (int y = by; y < by + bh; y++) {
-                    for (int x = bx; x < bx + bw; x++) {
-                        out.setRGB(x, y, rgb);
-                    }
+        void supersede() {
+            superseded = true;
+        }
+
+        @Override
+        protected BlockGrid doInBackground() {
+            RenderMetrics.Span total = stage(RenderMetrics.RENDER);
+            java.util.function.BooleanSupplier cancelled = () -> superseded;
+            if (!reusedBase) {
+                if (previewFactor >= 2 * scale) {
+                    RenderMetrics.Span s = stage(RenderMetrics.PREVIEW);
+                    BufferedImage preview = renderPreview(cancelled);
+                    s.end();
+                    publish(preview);
+                }
+                if (p.ghost && (target == null || target.getWidth() != source.getWidth() || target.getHeight() != source.getHeight())) {
+                    target = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
                 }
+                PixelPipeline.Rendered base = PixelPipeline.render(source, scale, fullW, fullH, sat, p, true, target, cancelled);
+                grid = base.grid;
+                image = base.image;
             }
+            if (p.hasDialog()) {
+                RenderMetrics.Span s = stage(RenderMetrics.DIALOG);
+                overlay = renderOverlay();
+                s.end();
+            }
+            long ms = total.end() / 1_000_000;
+            statusMsg = (reusedBase ? " Dialog redrawn in " : " Processed in ") + ms + " ms  |  Block: " + p.blockSize + "px  |  Dither: " + (p.dither ? "ON" : "OFF") + "  |  Ghost: " + (p.ghost ? "ON" : "OFF") + "  |  Outline: " + (p.outline ? "ON" : "OFF") + (p.fx.length > 0 ? "  |  FX: " + String.join(", ", p.fx) : "") + "  |  Border: " + RenderParams.BORDER_NAMES[p.borderMode] + "  |  Palette: " + Palettes.NAMES[p.paletteIndex];
+            return grid;
         }
-        return out;
-    }
 
-    private static float clamp(float v) {
-        return v < 0 ? 0 : (v > 255 ? 255 : v);
-    }
+        private RenderMetrics.Span stage(String name) {
+            return RenderMetrics.begin(name, fullW, fullH, p);
+        }
+
+        /** Full-size width and height of what the canvas shows: the grid, plus the border if there is one. */
+        private int contentW() {
+            return image != null ? fullW + 2 * borderWidth() : grid.width;
+        }
 
-    private static Color findNearestRedmean(float r, float g, float b, Color[] palette) {
-        Color best = palette[0];
-        double bestDist = Double.MAX_VALUE;
-        for (Color c : palette) {
-            int cr = c.getRed(), cg = c.getGreen(), cb = c.getBlue();
-            double dr = r - cr, dg = g - cg, db = b - cb;
-            double rBar = (r + cr) / 2.0;
-            double termR = (2.0 + rBar / 256.0) * dr * dr;
-            double termG = 4.0 * dg * dg;
-            double termB = (2.0 + (255.0 - rBar) / 256.0) * db * db;
-            double dist = Math.sqrt(termR + termG + termB);
-            if (dist < bestDist) {
-                bestDist = dist;
-                best = c;
+        private int contentH() {
+            return image != null ? fullH + 2 * borderWidth() : grid.height;
+        }
+
+        private int borderWidth() {
+            return p.borderMode > 0 ? PixelPipeline.BORDER_WIDTH : 0;
+        }
+
+        /**
+         * Base pixels under the dialog's bounds with the dialog drawn over them, or null if it
+         * draws nothing. An image rendered from a subsampled decode is stretched to full size
+         * first, the way the canvas shows it.
+         */
+        private BufferedImage renderOverlay() {
+            int w = contentW();
+            int h = contentH();
+            Rectangle r = DialogRenderer.dialogBounds(w, h, p.dialogName, p.dialogText, p.dialogStyle, p.dialogVerticalPos, p.dialogBoxHeight, p.dialogBoxWidthPct);
+            if (r.isEmpty()) return null;
+            BufferedImage patch = new BufferedImage(r.width, r.height, BufferedImage.TYPE_INT_RGB);
+            int[] dst = PixelPipeline.pixels(patch);
+            Graphics2D g = patch.createGraphics();
+            if (image != null && image.getWidth() == w && image.getHeight() == h) {
+                int[] src = PixelPipeline.pixels(image);
+                for (int y = 0; y < r.height; y++) System.arraycopy(src, (r.y + y) * w + r.x, dst, y * r.width, r.width);
+            } else if (image != null) {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+                g.drawImage(image, -r.x, -r.y, w - r.x, h - r.y, 0, 0, image.getWidth(), image.getHeight(), null);
+            } else {
+                grid.expandRegion(r.x, r.y, r.width, r.height, dst, 0, r.width);
             }
+            g.translate(-r.x, -r.y);
+            DialogRenderer.drawDialogOntoGraphics(g, w, h, p.dialogName, p.dialogText, p.dialogStyle, p.dialogVerticalPos, p.dialogBoxHeight, p.dialogBoxWidthPct);
+            g.dispose();
+            overlayBounds = r;
+            return patch;
         }
-        return best;
-    }
 
-    /** Ghost FX: blend image with offset semi-transparent copy (motion-trail). */
-    private BufferedImage applyGhost(BufferedImage src, int offsetX, int offsetY, float alpha) {
-        int w = src.getWidth();
-        int h = src.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = out.createGraphics();
-        g.drawImage(src, 0, 0, null);
-        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-        g.drawImage(src, offsetX, offsetY, null);
-        g.dispose();
-        BufferedImage rgb = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        rgb.createGraphics().drawImage(out, 0, 0, null);
-        return rgb;
-    }
+        /**
+         * The same stages on the mip level, with the block size and ghost offset divided
+         * by the factor. Border and dialog are drawn through a 1/f scale in full-image
+         * coordinates, so the preview lines up with the full result it stands in for.
+         */
+        private BufferedImage renderPreview(java.util.function.BooleanSupplier cancelled) {
+            int f = previewFactor;
+            BufferedImage mip = PixelPipeline.mipLevel(source, f / scale, sat, cancelled);
+            BlockGrid grid = PixelPipeline.downsampleBlocks(mip, Math.max(1, p.blockSize / f), null, cancelled);
+            FxChain fx = FxChain.of(p, f);
+            grid = fx.cells(grid, cancelled);
+            BufferedImage img = fx.pixels(grid, cancelled);
+            PixelPipeline.checkCancelled(cancelled);
+            int bw = p.borderMode > 0 ? PixelPipeline.BORDER_WIDTH : 0;
+            int outW = fullW + 2 * bw;
+            int outH = fullH + 2 * bw;
+            BufferedImage out = new BufferedImage((outW + f - 1) / f, (outH + f - 1) / f, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = out.createGraphics();
+            if (bw > 0) {
+                g.setColor(new Color(PixelPipeline.borderColor(p.borderMode)));
+                g.fillRect(0, 0, out.getWidth(), out.getHeight());
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g.scale(1.0 / f, 1.0 / f);
+            g.drawImage(img, bw, bw, img.getWidth() * f, img.getHeight() * f, null);
+            if (p.hasDialog()) {
+                DialogRenderer.drawDialogOntoGraphics(g, outW, outH, p.dialogName, p.dialogText, p.dialogStyle, p.dialogVerticalPos, p.dialogBoxHeight, p.dialogBoxWidthPct);
+            }
+            g.dispose();
+            return out;
+        }
 
-    /** Outline FX: draw dark lines on edges between blocks with different colors (cel-shaded). */
-    private BufferedImage applyOutline(BufferedImage src, int blockSize, Color[] palette) {
-        int w = src.getWidth();
-        int h = src.getHeight();
-        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = out.createGraphics();
-        g.drawImage(src, 0, 0, null);
-        g.dispose();
-
-        Color outlineColor = palette.length > 0 ? palette[0] : Color.BLACK;
-        if (outlineColor.getRed() + outlineColor.getGreen() + outlineColor.getBlue() > 128) {
-            outlineColor = new Color(
-                Math.max(0, outlineColor.getRed() - 80),
-                Math.max(0, outlineColor.getGreen() - 80),
-                Math.max(0, outlineColor.getBlue() - 80)
-            );
-        }
-        int outlineRgb = outlineColor.getRGB();
-        int lineW = blockSize >= 16 ? 2 : 1;
-
-        for (int by = 0; by < h; by += blockSize) {
-            for (int bx = 0; bx < w; bx += blockSize) {
-                int cur = src.getRGB(bx, by);
-                int nRight = bx + blockSize < w ? src.getRGB(bx + blockSize, by) : cur;
-                int nBottom = by + blockSize < h ? src.getRGB(bx, by + blockSize) : cur;
-
-                if (cur != nRight) {
-                    for (int dy = 0; dy < Math.min(blockSize, h - by); dy++) {
-                        for (int d = 0; d < lineW && bx + blockSize + d < w; d++) {
-                            out.setRGB(bx + blockSize + d, by + dy, outlineRgb);
-                        }
+        @Override
+        protected void process(java.util.List<BufferedImage> chunks) {
+            if (superseded) return;
+            int bw = p.borderMode > 0 ? PixelPipeline.BORDER_WIDTH : 0;
+            canvas.setPreview(chunks.get(chunks.size() - 1), fullW + 2 * bw, fullH + 2 * bw);
+            statusLabel.setText(" Preview at 1/" + previewFactor + " resolution  |  refining …");
+        }
+
+        @Override
+        protected void done() {
+            try {
+                get();
+                if (!superseded) {
+                    if (turn >= 0) ghostTurn = turn;
+                    processedGrid = grid;
+                    processedImage = image;
+                    processedParams = p;
+                    processedSource = source;
+                    if (!canvas.isShowing(grid, image)) {
+                        if (image != null) canvas.setPreview(image, contentW(), contentH());
+                        else canvas.setGrid(grid);
                     }
+                    canvas.setOverlay(overlay, overlayBounds);
+                    statusLabel.setText(statusMsg);
                 }
-                if (cur != nBottom) {
-                    for (int dx = 0; dx < Math.min(blockSize, w - bx); dx++) {
-                        for (int d = 0; d < lineW && by + blockSize + d < h; d++) {
-                            out.setRGB(bx + dx, by + blockSize + d, outlineRgb);
-                        }
-                    }
+            } catch (ExecutionException ex) {
+                if (!(ex.getCause() instanceof CancellationException)) {
+                    statusLabel.setText(" Processing failed: " + ex.getCause());
                 }
+            } catch (InterruptedException | CancellationException ignored) {
             }
+            if (target != null) ghostImages[turn] = target;
+            renderFinished(this);
         }
-        return out;
     }
 
-    /** Add 2px border around image. mode: 1=black/white, 2=navy. */
-    private BufferedImage applyBorder(BufferedImage src, int mode) {
-        int w = src.getWidth();
-        int h = src.getHeight();
-        int bw = 2;
-        Color borderColor = (mode == 2) ? NAVY : Color.BLACK;
-        BufferedImage out = new BufferedImage(w + 2 * bw, h + 2 * bw, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2 = out.createGraphics();
-        g2.setColor(borderColor);
-        g2.fillRect(0, 0, out.getWidth(), out.getHeight());
-        g2.drawImage(src, bw, bw, null);
-        g2.dispose();
-        return out;
+    /**
+     * Fills the all-palettes strip. The source is downsampled once, at the finest cell the
+     * thumbnails can show (one real block or one thumbnail pixel); each pass merges those
+     * into cells of k blocks and maps that one grid through all nine palettes in parallel.
+     * The first pass has a quarter of the strip's resolution per axis so the thumbnails
+     * show up early; each later pass halves k, down to the fine grid itself. Outline,
+     * ghost, border and dialog are left out: they look the same whichever palette is
+     * picked, or vanish at thumbnail size.
+     */
+    private class PaletteStripJob extends SwingWorker<Void, BufferedImage[]> {
+        private final BufferedImage source;
+        private final int scale;
+        private final SummedAreaTable sat;
+        private final int blockSize;
+        private final boolean dither;
+        private volatile boolean superseded;
+
+        PaletteStripJob(BufferedImage source, int scale, SummedAreaTable sat, int blockSize, boolean dither) {
+            this.source = source;
+            this.scale = scale;
+            this.sat = sat;
+            this.blockSize = blockSize;
+            this.dither = dither;
+        }
+
+        void supersede() {
+            superseded = true;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            java.util.function.BooleanSupplier cancelled = () -> superseded;
+            int block = Math.max(1, blockSize / scale);
+            int cols = (source.getWidth() + block - 1) / block;
+            int rows = (source.getHeight() + block - 1) / block;
+            int finest = 1;
+            while ((cols + finest - 1) / finest > PaletteStrip.THUMB_W || (rows + finest - 1) / finest > PaletteStrip.THUMB_H) finest <<= 1;
+            BlockGrid fine = PixelPipeline.downsampleBlocks(source, block * finest, sat, cancelled);
+            for (int k = finest * 4; k >= finest; k >>= 1) {
+                if (k > finest && Math.max(cols, rows) / k < 8) continue; // too coarse to be worth a pass
+                BlockGrid shared = k == finest ? fine : fine.coarsened(k / finest);
+                BlockGrid[] grids = PixelPipeline.applyAllPalettes(shared, dither, cancelled);
+                BufferedImage[] thumbs = new BufferedImage[grids.length];
+                for (int i = 0; i < grids.length; i++) thumbs[i] = grids[i].toCellImage();
+                publish(thumbs);
+            }
+            return null;
+        }
+
+        @Override
+        protected void process(java.util.List<BufferedImage[]> chunks) {
+            if (!superseded) paletteStrip.setThumbnails(chunks.get(chunks.size() - 1));
+        }
+
+        /** A pass that failed leaves the strip at its last thumbnails and says why on the status bar. */
+        @Override
+        protected void done() {
+            try {
+                get();
+            } catch (ExecutionException ex) {
+                if (!superseded && !(ex.getCause() instanceof CancellationException)) {
+                    statusLabel.setText(" Palette previews failed: " + ex.getCause());
+                }
+            } catch (InterruptedException | CancellationException ignored) {
+            }
+        }
     }
 
     // ═══════════════════════════════════════════════════════════════════════════
@@ -1143,17 +1331,312 @@ public class PolyPixelator extends JFrame {
         }
     }
 
+    /**
+     * The current image in every palette side by side: one tile per palette holding its
+     * thumbnail, scaled up nearest-neighbour to fit, and its name, with the selected
+     * palette's tile pressed in. Before any thumbnails arrive a tile shows its palette's
+     * colours as stripes. Clicking a tile hands its index to onPick.
+     */
+    private static class PaletteStrip extends JComponent {
+        static final int THUMB_W = 96, THUMB_H = 64;
+        private static final int PAD = 3, LABEL_H = 16, GAP = 6;
+        private static final int TILE_W = THUMB_W + 2 * PAD, TILE_H = THUMB_H + LABEL_H + 2 * PAD;
+
+        private BufferedImage[] thumbs; // one TYPE_INT_RGB cell image per palette, or null
+        private int selected;
+
+        PaletteStrip(java.util.function.IntConsumer onPick) {
+            setFont(WIN_FONT);
+            setBackground(WIN_GRAY); // the bevels are shaded from it
+            setPreferredSize(new Dimension(GAP + Palettes.PALETTES.length * (TILE_W + GAP), TILE_H + 2 * GAP));
+            setToolTipText(""); // registers with the tooltip manager; the text comes per tile
+            addMouseListener(new java.awt.event.MouseAdapter() {
+                @Override
+                public void mousePressed(java.awt.event.MouseEvent e) {
+                    int i = tileAt(e.getX(), e.getY());
+                    if (i >= 0) onPick.accept(i);
+                }
+            });
+        }
+
+        void setThumbnails(BufferedImage[] thumbs) {
+            this.thumbs = thumbs;
+            repaint();
+        }
+
+        void setSelected(int i) {
+            selected = i;
+            repaint();
+        }
+
+        /** Index of the tile under (x, y), or -1 between tiles. */
+        private int tileAt(int x, int y) {
+            if (x < GAP || y < GAP || y >= GAP + TILE_H) return -1;
+            int i = (x - GAP) / (TILE_W + GAP);
+            if (i >= Palettes.PALETTES.length || (x - GAP) % (TILE_W + GAP) >= TILE_W) return -1;
+            return i;
+        }
+
+        @Override
+        public String getToolTipText(java.awt.event.MouseEvent e) {
+            int i = tileAt(e.getX(), e.getY());
+            return i < 0 ? null : Palettes.NAMES[i] + " — click to use";
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setColor(getBackground());
+            g2.fillRect(0, 0, getWidth(), getHeight());
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            FontMetrics fm = g2.getFontMetrics();
+            for (int i = 0; i < Palettes.PALETTES.length; i++) {
+                int x = GAP + i * (TILE_W + GAP), y = GAP;
+                int tx = x + PAD, ty = y + PAD;
+                BufferedImage t = thumbs != null ? thumbs[i] : null;
+                if (t != null) {
+                    double s = Math.min((double) THUMB_W / t.getWidth(), (double) THUMB_H / t.getHeight());
+                    int dw = Math.max(1, (int) Math.round(t.getWidth() * s));
+                    int dh = Math.max(1, (int) Math.round(t.getHeight() * s));
+                    g2.drawImage(t, tx + (THUMB_W - dw) / 2, ty + (THUMB_H - dh) / 2, dw, dh, null);
+                } else {
+                    Color[] palette = Palettes.PALETTES[i];
+                    for (int c = 0; c < palette.length; c++) {
+                        int x0 = tx + c * THUMB_W / palette.length, x1 = tx + (c + 1) * THUMB_W / palette.length;
+                        g2.setColor(palette[c]);
+                        g2.fillRect(x0, ty, x1 - x0, THUMB_H);
+                    }
+                }
+                String name = Palettes.NAMES[i];
+                int ly = ty + THUMB_H + 1;
+                if (i == selected) {
+                    g2.setColor(NAVY);
+                    g2.fillRect(tx, ly, THUMB_W, LABEL_H - 1);
+                }
+                g2.setColor(i == selected ? Color.WHITE : Color.BLACK);
+                g2.drawString(name, tx + (THUMB_W - fm.stringWidth(name)) / 2, ly + (LABEL_H - 1 + fm.getAscent() - fm.getDescent()) / 2);
+                BorderFactory.createBevelBorder(i == selected ? BevelBorder.LOWERED : BevelBorder.RAISED)
+                    .paintBorder(this, g2, x, y, TILE_W, TILE_H);
+            }
+            g2.dispose();
+        }
+    }
+
+    /**
+     * Shows either a full-resolution image or a BlockGrid at a nearest-neighbour zoom.
+     * A grid is drawn as its one-pixel-per-cell image scaled up, plus outline stripes;
+     * a coarse preview is an image smaller than the area it stands for, stretched over it.
+     *
+     * Painting goes through TILE×TILE tiles in display space. Each tile is rendered once
+     * per zoom level and kept in a small LRU cache keyed on zoom and position, which is
+     * only emptied when the content changes, so zooming back to a level reuses its tiles.
+     * Only tiles that intersect the clip are drawn, so scrolling is a handful of unscaled
+     * blits however large the result. The dialog overlay is a separate patch painted over
+     * the tiles, so replacing it leaves the tile cache alone.
+     */
     private static class ImageCanvas extends JPanel {
+        private static final int TILE = 256;
+        private static final int TILE_CACHE = 192; // ~48 MB of 256×256 INT_RGB tiles
+        private static final double MIN_ZOOM = 1 / 64.0;
+        private static final double MAX_ZOOM = 32;
+
         private BufferedImage image;
+        private int imageW, imageH; // content size the image stands for
+        private BlockGrid grid;
+        private BufferedImage cellImage;
+        private BufferedImage overlay;
+        private Rectangle overlayBounds; // in content coordinates
+        private double zoom = 1;
+        private boolean fit;
+        private final java.util.Map<TileKey, BufferedImage> tiles = new java.util.LinkedHashMap<TileKey, BufferedImage>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<TileKey, BufferedImage> eldest) {
+                return size() > TILE_CACHE;
+            }
+        };
+        private Runnable zoomListener = () -> {};
 
         ImageCanvas() {
             setOpaque(true);
             setBackground(WIN_GRAY);
+            addMouseWheelListener(e -> {
+                if (!e.isControlDown() || !hasContent()) {
+                    getParent().dispatchEvent(SwingUtilities.convertMouseEvent(this, e, getParent()));
+                    return;
+                }
+                zoomAt(e.getWheelRotation() < 0 ? zoom * 2 : zoom / 2, e.getPoint());
+            });
         }
 
         void setImage(BufferedImage img) {
+            if (img == null) {
+                this.image = null;
+                this.overlay = null;
+                this.overlayBounds = null;
+                this.grid = null;
+                this.cellImage = null;
+                contentChanged();
+                return;
+            }
+            setPreview(img, img.getWidth(), img.getHeight());
+        }
+
+        /** Shows img stretched (nearest-neighbour) to w×h. */
+        void setPreview(BufferedImage img, int w, int h) {
             this.image = img;
-            Dimension d = img != null ? new Dimension(img.getWidth(), img.getHeight()) : new Dimension(400, 300);
+            this.overlay = null;
+            this.overlayBounds = null;
+            this.imageW = w;
+            this.imageH = h;
+            this.grid = null;
+            this.cellImage = null;
+            contentChanged();
+        }
+
+        void setGrid(BlockGrid g) {
+            this.image = null;
+            this.overlay = null;
+            this.overlayBounds = null;
+            this.grid = g;
+            this.cellImage = g.toCellImage();
+            contentChanged();
+        }
+
+        /** True if g (or img, when not null) is what the canvas shows now. */
+        boolean isShowing(BlockGrid g, BufferedImage img) {
+            return img != null ? image == img : grid == g && grid != null;
+        }
+
+        /** Paints patch over the content at bounds (content coordinates); null removes it. */
+        void setOverlay(BufferedImage patch, Rectangle bounds) {
+            Rectangle dirty = overlayBounds;
+            overlay = patch;
+            overlayBounds = patch != null ? bounds : null;
+            if (overlayBounds != null) dirty = dirty == null ? overlayBounds : dirty.union(overlayBounds);
+            if (dirty != null) repaintContent(dirty);
+        }
+
+        private void repaintContent(Rectangle r) {
+            int dispW = (int) Math.ceil(contentW() * zoom);
+            int dispH = (int) Math.ceil(contentH() * zoom);
+            int x = Math.max(0, (getWidth() - dispW) / 2);
+            int y = Math.max(0, (getHeight() - dispH) / 2);
+            repaint(x + (int) Math.floor(r.x * zoom), y + (int) Math.floor(r.y * zoom),
+                (int) Math.ceil(r.width * zoom) + 2, (int) Math.ceil(r.height * zoom) + 2);
+        }
+
+        void setZoomListener(Runnable r) {
+            zoomListener = r;
+        }
+
+        double getZoom() {
+            return zoom;
+        }
+
+        boolean isFit() {
+            return fit;
+        }
+
+        /** Zooms in or out by a factor of two around the centre of the view. */
+        void zoomBy(int steps) {
+            if (!hasContent()) return;
+            Rectangle vis = getVisibleRect();
+            zoomAt(steps > 0 ? zoom * 2 : zoom / 2, new Point(vis.x + vis.width / 2, vis.y + vis.height / 2));
+        }
+
+        void setActualSize() {
+            fit = false;
+            applyZoom(1);
+        }
+
+        /** Scales the content to fit the viewport and keeps it fitted as the window resizes. */
+        void setFit() {
+            fit = true;
+            applyZoom(fitZoom(contentW(), contentH()));
+        }
+
+        /** Viewport size changed: re-fit if in fit mode. */
+        void viewportResized() {
+            if (fit && hasContent()) applyZoom(fitZoom(contentW(), contentH()));
+        }
+
+        /** Pixels a w×h result would cover on screen: its zoomed size, capped at the viewport. */
+        long displayPixels(int w, int h) {
+            Dimension vp = viewportSize();
+            double z = fit ? fitZoom(w, h) : zoom;
+            double shown = Math.min((double) vp.width, w * z) * Math.min((double) vp.height, h * z);
+            return (long) shown;
+        }
+
+        private void zoomAt(double newZoom, Point anchor) {
+            fit = false;
+            double z = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, newZoom));
+            if (z == zoom) return;
+            JViewport vp = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+            if (vp == null) {
+                applyZoom(z);
+                return;
+            }
+            // Keep the content point under the anchor where it is on screen
+            Point inView = SwingUtilities.convertPoint(this, anchor, vp);
+            double cx = anchor.x / zoom, cy = anchor.y / zoom;
+            applyZoom(z);
+            vp.validate();
+            Point loc = SwingUtilities.convertPoint(this, new Point((int) (cx * z), (int) (cy * z)), vp.getView());
+            Dimension view = vp.getViewSize(), ext = vp.getExtentSize();
+            vp.setViewPosition(new Point(
+                Math.max(0, Math.min(view.width - ext.width, loc.x - inView.x)),
+                Math.max(0, Math.min(view.height - ext.height, loc.y - inView.y))));
+        }
+
+        private void applyZoom(double z) {
+            zoom = z;
+            layoutContent();
+            zoomListener.run();
+        }
+
+        private double fitZoom(int w, int h) {
+            Dimension vp = viewportSize();
+            if (w <= 0 || h <= 0 || vp.width <= 0 || vp.height <= 0) return 1;
+            return Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, Math.min((double) vp.width / w, (double) vp.height / h)));
+        }
+
+        private Dimension viewportSize() {
+            Container vp = SwingUtilities.getAncestorOfClass(JViewport.class, this);
+            return vp != null ? vp.getSize() : getSize();
+        }
+
+        private boolean hasContent() {
+            return image != null || grid != null;
+        }
+
+        private int contentW() {
+            return image != null ? imageW : grid != null ? grid.width : 0;
+        }
+
+        private int contentH() {
+            return image != null ? imageH : grid != null ? grid.height : 0;
+        }
+
+        private void contentChanged() {
+            tiles.clear();
+            layoutContent();
+        }
+
+        /** Sizes the canvas to the content at the current zoom, re-fitting it in fit mode. */
+        private void layoutContent() {
+            if (!hasContent()) {
+                resizeTo(new Dimension(400, 300));
+                return;
+            }
+            if (fit) {
+                zoom = fitZoom(contentW(), contentH());
+                zoomListener.run();
+            }
+            resizeTo(new Dimension(Math.max(1, (int) Math.ceil(contentW() * zoom)), Math.max(1, (int) Math.ceil(contentH() * zoom))));
+        }
+
+        private void resizeTo(Dimension d) {
             setPreferredSize(d);
             setMinimumSize(d);
             setMaximumSize(d);
@@ -1164,7 +1647,7 @@ public class PolyPixelator extends JFrame {
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
-            if (image == null) {
+            if (!hasContent()) {
                 g.setColor(Color.GRAY);
                 g.setFont(WIN_FONT);
                 String msg = "Load an image to get started";
@@ -1172,13 +1655,92 @@ public class PolyPixelator extends JFrame {
                 g.drawString(msg, (getWidth() - fm.stringWidth(msg)) / 2, getHeight() / 2);
                 return;
             }
-            int imgW = image.getWidth();
-            int imgH = image.getHeight();
-            int x = Math.max(0, (getWidth() - imgW) / 2);
-            int y = Math.max(0, (getHeight() - imgH) / 2);
-            Graphics2D g2 = (Graphics2D) g;
-            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-            g2.drawImage(image, x, y, null);
+            int dispW = (int) Math.ceil(contentW() * zoom);
+            int dispH = (int) Math.ceil(contentH() * zoom);
+            int x = Math.max(0, (getWidth() - dispW) / 2);
+            int y = Math.max(0, (getHeight() - dispH) / 2);
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+            int tx0 = Math.max(0, (clip.x - x) / TILE), tx1 = Math.min((dispW - 1) / TILE, (clip.x + clip.width - x) / TILE);
+            int ty0 = Math.max(0, (clip.y - y) / TILE), ty1 = Math.min((dispH - 1) / TILE, (clip.y + clip.height - y) / TILE);
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    TileKey key = new TileKey(zoom, tx, ty);
+                    BufferedImage tile = tiles.get(key);
+                    if (tile == null) {
+                        tile = renderTile(tx, ty, dispW, dispH);
+                        tiles.put(key, tile);
+                    }
+                    g.drawImage(tile, x + tx * TILE, y + ty * TILE, null);
+                }
+            }
+            if (overlay != null) {
+                Graphics2D go = (Graphics2D) g.create();
+                go.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+                go.translate(x, y);
+                go.scale(zoom, zoom);
+                go.drawImage(overlay, overlayBounds.x, overlayBounds.y, null);
+                go.dispose();
+            }
+        }
+
+        /** A display tile at one zoom level. */
+        private static final class TileKey {
+            final double zoom;
+            final int tx, ty;
+
+            TileKey(double zoom, int tx, int ty) {
+                this.zoom = zoom;
+                this.tx = tx;
+                this.ty = ty;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof TileKey)) return false;
+                TileKey k = (TileKey) o;
+                return zoom == k.zoom && tx == k.tx && ty == k.ty;
+            }
+
+            @Override
+            public int hashCode() {
+                return (Double.hashCode(zoom) * 31 + tx) * 31 + ty;
+            }
+        }
+
+        /** Renders display tile (tx, ty) by drawing the content through the zoom transform. */
+        private BufferedImage renderTile(int tx, int ty, int dispW, int dispH) {
+            BufferedImage tile = new BufferedImage(Math.min(TILE, dispW - tx * TILE), Math.min(TILE, dispH - ty * TILE), BufferedImage.TYPE_INT_RGB);
+            Graphics2D gc = tile.createGraphics();
+            gc.setColor(getBackground());
+            gc.fillRect(0, 0, tile.getWidth(), tile.getHeight());
+            gc.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            gc.translate(-tx * TILE, -ty * TILE);
+            gc.scale(zoom, zoom);
+            if (image != null) {
+                gc.drawImage(image, 0, 0, imageW, imageH, null);
+            } else {
+                gc.clipRect(0, 0, grid.width, grid.height);
+                int s = grid.blockSize;
+                gc.drawImage(cellImage, 0, 0, grid.cols * s, grid.rows * s, null);
+                if (grid.edges != null) paintOutline(gc, s);
+            }
+            gc.dispose();
+            return tile;
+        }
+
+        private void paintOutline(Graphics2D gc, int s) {
+            Rectangle clip = gc.getClipBounds();
+            int cx0 = Math.max(0, clip.x / s), cx1 = Math.min(grid.cols - 1, (clip.x + clip.width) / s);
+            int cy0 = Math.max(0, clip.y / s), cy1 = Math.min(grid.rows - 1, (clip.y + clip.height) / s);
+            gc.setColor(new Color(grid.outlineRgb));
+            for (int cy = cy0; cy <= cy1; cy++) {
+                for (int cx = cx0; cx <= cx1; cx++) {
+                    byte e = grid.edges[cy * grid.cols + cx];
+                    if ((e & BlockGrid.EDGE_LEFT) != 0) gc.fillRect(cx * s, cy * s, grid.lineW, s);
+                    if ((e & BlockGrid.EDGE_TOP) != 0) gc.fillRect(cx * s, cy * s, s, grid.lineW);
+                }
+            }
         }
     }
 
@@ -0,0 +1,270 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of finished PNGs, keyed by content: a SHA-256 of the source file's bytes
+ * and every setting that changes the output, so the same photo under another name still
+ * hits and any changed setting misses. A hit is a file copy, with no decode or render.
+ *
+ * Entries are files named by their key under a two-character fan-out
+ * (dir/3f/3fa9….png). A new entry is written to a temporary file beside its final name
+ * and moved into place atomically, so a reader never sees half a PNG and several
+ * processes can share one directory; two writers of the same key write the same bytes
+ * and the last move wins. Reading an entry bumps its modification time, and once the
+ * directory grows past its cap the least recently used entries are deleted until it is
+ * back under 90 % of it.
+ */
+final class RenderCache {
+
+    /** Part of every key; bump it when the pipeline's output changes, to retire old entries. */
+    private static final int FORMAT = 1;
+    /** Temporary files older than this were left by a process that died mid-write. */
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000L;
+
+    private final File dir;
+    private final long maxBytes;
+    private final AtomicLong size = new AtomicLong(); // this process's estimate; eviction rescans
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong(); // stores that failed
+
+    /** Opens or creates the cache in dir, capped at maxBytes. */
+    RenderCache(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create cache folder " + dir);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        long total = 0;
+        for (File f : entries()) total += f.length();
+        size.set(total);
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  KEYS
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    /** SHA-256 of a file's bytes. */
+    static byte[] digest(File source) throws IOException {
+        MessageDigest md = sha256();
+        try (InputStream in = new FileInputStream(source)) {
+            byte[] buf = new byte[1 << 16];
+            for (int n; (n = in.read(buf)) > 0; ) md.update(buf, 0, n);
+        }
+        return md.digest();
+    }
+
+    /** SHA-256 of bytes held in memory. */
+    static byte[] digest(byte[] source) {
+        return sha256().digest(source);
+    }
+
+    /**
+     * Key of the PNG that p renders from the source with the given digest, at scale
+     * pixels per block (0 for full resolution). The palette's colours go in as well as
+     * its index, so editing a palette retires its entries.
+     */
+    static String key(byte[] sourceDigest, RenderParams p, int scale) {
+        MessageDigest md = sha256();
+        md.update(sourceDigest);
+        StringBuilder sb = new StringBuilder().append(FORMAT)
+            .append('|').append(p.blockSize)
+            .append('|').append(p.paletteIndex).append(':').append(Arrays.toString(Palettes.RGB[p.paletteIndex]))
+            .append('|').append(p.dither).append('|').append(p.ghost).append('|').append(p.outline)
+            .append('|').append(p.borderMode)
+            .append('|').append(scale);
+        if (p.ghost && p.customGhost()) {
+            sb.append("|ghost|").append(p.ghostOffset).append('|').append(p.ghostAlpha).append('|').append(p.ghostTrails);
+        }
+        if (p.fx.length > 0) {
+            // Effect names cannot hold a comma (--fx splits on them), so the list reads back one way
+            sb.append("|fx|").append(String.join(",", p.fx));
+        }
+        if (p.hasDialog()) {
+            // Length-prefixed so no choice of text can run into the next field
+            sb.append("|dialog|").append(p.dialogStyle).append('|').append(p.dialogVerticalPos)
+                .append('|').append(p.dialogBoxHeight).append('|').append(p.dialogBoxWidthPct)
+                .append('|').append(p.dialogName.length()).append(':').append(p.dialogName)
+                .append('|').append(p.dialogText.length()).append(':').append(p.dialogText);
+        }
+        byte[] h = md.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(h.length * 2);
+        for (byte b : h) hex.append(String.format(Locale.ROOT, "%02x", b & 0xFF));
+        return hex.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every JDK has SHA-256", e);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  ENTRIES
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    private File file(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key + ".png");
+    }
+
+    /** The cached PNG for key, or null on a miss. */
+    byte[] get(String key) {
+        File f = file(key);
+        try {
+            byte[] png = Files.readAllBytes(f.toPath());
+            touch(f);
+            hits.incrementAndGet();
+            return png;
+        } catch (IOException e) {
+            // Missing, or evicted by another process between the lookup and the read
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /** Copies the cached PNG for key to out; false on a miss. */
+    boolean copyTo(String key, File out) {
+        File f = file(key);
+        try {
+            Files.copy(f.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            touch(f);
+            hits.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /** Stores png under key. Failures are ignored: the cache only ever saves work. */
+    void put(String key, byte[] png) {
+        store(key, tmp -> Files.write(tmp, png));
+    }
+
+    /** Stores a copy of the PNG file rendered for key. */
+    void put(String key, File rendered) {
+        store(key, tmp -> Files.copy(rendered.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    private interface Writer {
+        void write(Path tmp) throws IOException;
+    }
+
+    private void store(String key, Writer writer) {
+        File f = file(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(f.getParentFile().toPath());
+            tmp = Files.createTempFile(f.getParentFile().toPath(), key, ".tmp");
+            writer.write(tmp);
+            long bytes = Files.size(tmp);
+            boolean replaced = f.exists();
+            try {
+                try {
+                    Files.move(tmp, f.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    // tmp is in the entry's own folder, so this is still a rename, only without the guarantee
+                    Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (FileAlreadyExistsException e) {
+                // Lost a race with another store of the same key: same bytes, keep theirs
+                Files.deleteIfExists(tmp);
+                return;
+            }
+            tmp = null;
+            stores.incrementAndGet();
+            if (!replaced && size.addAndGet(bytes) > maxBytes) evict();
+        } catch (IOException e) {
+            // Disk full, read-only or racing an eviction: skip caching this one
+            dropped.incrementAndGet();
+        } finally {
+            if (tmp != null) tmp.toFile().delete();
+        }
+    }
+
+    private static void touch(File f) {
+        f.setLastModified(System.currentTimeMillis());
+    }
+
+    /** Deletes least recently used entries until the folder is under 90 % of the cap. */
+    private synchronized void evict() {
+        List<File> files = entries();
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= maxBytes) {
+            size.set(total);
+            return;
+        }
+        long[] used = new long[files.size()];
+        for (int i = 0; i < used.length; i++) used[i] = files.get(i).lastModified();
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(used[a], used[b]));
+        long target = maxBytes / 10 * 9;
+        for (int i = 0; i < order.length && total > target; i++) {
+            File f = files.get(order[i]);
+            long bytes = f.length();
+            try {
+                if (Files.deleteIfExists(f.toPath())) {
+                    total -= bytes;
+                    evictions.incrementAndGet();
+                }
+            } catch (NoSuchFileException ignored) {
+            } catch (IOException ignored) {
+                // Open elsewhere (Windows); it goes next time
+            }
+        }
+        size.set(total);
+    }
+
+    /** Every entry in the folder; removes temporary files that outlived their writer on the way. */
+    private List<File> entries() {
+        List<File> files = new ArrayList<>();
+        File[] buckets = dir.listFiles(File::isDirectory);
+        if (buckets == null) return files;
+        long now = System.currentTimeMillis();
+        for (File bucket : buckets) {
+            File[] inside = bucket.listFiles();
+            if (inside == null) continue;
+            for (File f : inside) {
+                String name = f.getName();
+                if (name.endsWith(".png")) files.add(f);
+                else if (name.endsWith(".tmp") && now - f.lastModified() > STALE_TEMP_MILLIS) f.delete();
+            }
+        }
+        return files;
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    /** Hits, misses, hit rate, stores, failed stores, evictions and size, for logs and /health. */
+    String stats() {
+        long h = hits.get(), m = misses.get();
+        return String.format(Locale.ROOT, "cache %d hits, %d misses (%.0f%% hit), %d stored, %d dropped, %d evicted, %.1f of %.0f MB",
+            h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m), stores.get(), dropped.get(), evictions.get(), size.get() / 1048576.0, maxBytes / 1048576.0);
+    }
+}
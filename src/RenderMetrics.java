@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-stage timing for the render pipeline.
+ *
+ * Each stage is wrapped in a {@link Span}. Ending a span records its duration in that
+ * stage's latency histogram, and commits a JDK Flight Recorder event (see
+ * {@link StageEvent}) with the stage, image size, block size, palette, duration and the
+ * bytes the calling thread allocated. Allocation inside the parallel bands runs on pool
+ * threads and is not counted; the output rasters, which are most of it, are allocated
+ * by the caller. Spans of stages that are cancelled or fail are never ended, so only
+ * completed work is measured. Events are only created once Flight Recorder is running
+ * (-XX:StartFlightRecording or jcmd JFR.start): loading the event class registers it
+ * with the recorder, which costs a few hundred milliseconds of startup otherwise.
+ *
+ * The histograms live for the whole process. {@link #report} formats p50/p95/p99 per
+ * stage for the Timings window, {@link #dump} writes the same table to a file, and
+ * starting with -Dpixelator.metrics.dump=&lt;file&gt; dumps it on exit.
+ */
+final class RenderMetrics {
+
+    static final String DECODE = "decode";
+    static final String PREVIEW = "preview";
+    static final String DOWNSAMPLE = "downsample";
+    static final String PALETTE = "palette";
+    static final String OUTLINE = "outline";
+    static final String GHOST = "ghost";
+    static final String FX = "fx"; // passes led by a plugin FxStage
+    static final String BORDER = "border";
+    static final String DIALOG = "dialog";
+    static final String ENCODE = "encode"; // PNG export, command line and batch
+    static final String RENDER = "render"; // a whole render, preview and dialog included
+    /** Report order. */
+    static final String[] STAGES = { DECODE, PREVIEW, DOWNSAMPLE, PALETTE, OUTLINE, GHOST, FX, BORDER, DIALOG, ENCODE, RENDER };
+
+    private static final boolean JFR = jfrAvailable();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    static {
+        String dumpTo = System.getProperty("pixelator.metrics.dump");
+        if (dumpTo != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    dump(new File(dumpTo));
+                } catch (IOException e) {
+                    System.err.println("Could not write metrics to " + dumpTo + ": " + e.getMessage());
+                }
+            }, "metrics-dump"));
+        }
+    }
+
+    private RenderMetrics() {}
+
+    private static boolean jfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static boolean recording() {
+        return JFR && jdk.jfr.FlightRecorder.isInitialized();
+    }
+
+    /** Per-thread allocation counter, set up on first use (JMX takes a moment to start). */
+    private static final class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS = counter();
+
+        private static com.sun.management.ThreadMXBean counter() {
+            try {
+                java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+                if (mx instanceof com.sun.management.ThreadMXBean) {
+                    com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) mx;
+                    if (sun.isThreadAllocatedMemorySupported() && sun.isThreadAllocatedMemoryEnabled()) return sun;
+                }
+            } catch (Throwable ignored) {}
+            return null;
+        }
+
+        static long bytes() {
+            return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+        }
+    }
+
+    /** Starts timing stage on a w×h image rendered with p (null if the stage has no parameters). */
+    static Span begin(String stage, int w, int h, RenderParams p) {
+        return new Span(stage, w, h, p != null ? p.blockSize : 0, p != null ? p.paletteIndex : -1);
+    }
+
+    /** One timed run of a stage. */
+    static final class Span {
+        private final String stage;
+        private final int width, height, blockSize, palette;
+        private final Object event = recording() ? StageEvent.start() : null;
+        private final long alloc0 = event != null ? Allocation.bytes() : -1;
+        private final long t0 = System.nanoTime();
+
+        private Span(String stage, int width, int height, int blockSize, int palette) {
+            this.stage = stage;
+            this.width = width;
+            this.height = height;
+            this.blockSize = blockSize;
+            this.palette = palette;
+        }
+
+        /** Records the stage as completed and returns its duration in nanoseconds. */
+        long end() {
+            long nanos = System.nanoTime() - t0;
+            histogram(stage).record(nanos);
+            if (event != null) {
+                long alloc = alloc0 >= 0 ? Allocation.bytes() - alloc0 : -1;
+                StageEvent.finish(event, stage, width, height, blockSize,
+                    palette >= 0 && palette < Palettes.NAMES.length ? Palettes.NAMES[palette] : "", alloc);
+            }
+            return nanos;
+        }
+    }
+
+    static Histogram histogram(String stage) {
+        return HISTOGRAMS.computeIfAbsent(stage, s -> new Histogram());
+    }
+
+    static void reset() {
+        HISTOGRAMS.clear();
+    }
+
+    /** One line per stage that has run: count, p50, p95, p99, max and mean in milliseconds. */
+    static String report() {
+        StringBuilder sb = new StringBuilder(String.format("%-11s %7s %9s %9s %9s %9s %9s%n", "stage", "count", "p50", "p95", "p99", "max", "mean"));
+        for (String stage : STAGES) {
+            Histogram h = HISTOGRAMS.get(stage);
+            if (h == null || h.count() == 0) continue;
+            sb.append(String.format("%-11s %7d %9s %9s %9s %9s %9s%n", stage, h.count(),
+                ms(h.percentile(0.50)), ms(h.percentile(0.95)), ms(h.percentile(0.99)), ms(h.max()), ms(h.mean())));
+        }
+        return sb.toString();
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    static void dump(File out) throws IOException {
+        try (PrintWriter w = new PrintWriter(out, StandardCharsets.UTF_8.name())) {
+            w.println("# Pixelator stage timings in ms, " + new java.util.Date());
+            w.print(report());
+        }
+    }
+
+    /**
+     * Log-linear latency histogram with microsecond resolution: exact below 16 µs, then
+     * 16 buckets per power of two, so a percentile is within 1/16 (6.25 %) of the true
+     * value. Recording is lock-free; reads are a consistent-enough snapshot for display.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts.incrementAndGet(bucket(micros));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        private static int bucket(long micros) {
+            if (micros < SUB) return (int) micros;
+            int e = 63 - Long.numberOfLeadingZeros(micros); // >= SUB_BITS
+            int sub = (int) (micros >>> (e - SUB_BITS)) & (SUB - 1);
+            return (e - SUB_BITS + 1) * SUB + sub;
+        }
+
+        /** Highest value, in nanoseconds, that falls into bucket i. */
+        private static long upperBound(int i) {
+            if (i < SUB) return i * 1000L + 999;
+            int e = i / SUB + SUB_BITS - 1;
+            long lower = (long) (SUB + i % SUB) << (e - SUB_BITS);
+            return (lower + (1L << (e - SUB_BITS)) - 1) * 1000 + 999;
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long mean() {
+            long n = count.get();
+            return n == 0 ? 0 : total.get() / n;
+        }
+
+        /** Upper bound of the bucket holding the q-quantile, capped at the maximum seen. */
+        long percentile(double q) {
+            long n = count.get();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+    }
+}
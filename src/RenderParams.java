@@ -0,0 +1,87 @@
+/**
+ * Immutable snapshot of every control that affects a render.
+ *
+ * The UI takes one of these on the EDT whenever a control changes and the
+ * pipeline only ever reads the snapshot, never the live fields.
+ */
+final class RenderParams {
+
+    static final String[] BORDER_NAMES = { "OFF", "B/W", "Navy" };
+
+    final int blockSize;
+    final int paletteIndex;
+    final boolean dither;
+    final boolean ghost;
+    final int ghostOffset;    // full-size pixels, right and down
+    final float ghostAlpha;   // opacity of each copy, 0-1
+    final int ghostTrails;    // copies, k-th at k × ghostOffset
+    final boolean outline;
+    final int borderMode; // 0=off, 1=black/white, 2=navy
+
+    final boolean dialogEnabled;
+    final int dialogStyle;
+    final int dialogVerticalPos;
+    final int dialogBoxHeight;
+    final int dialogBoxWidthPct;
+    final String dialogName;
+    final String dialogText;
+
+    /** Plugin {@link FxStage}s to run, by name, in order; see {@link FxChain}. */
+    final String[] fx;
+
+    RenderParams(int blockSize, int paletteIndex, boolean dither, boolean ghost, boolean outline, int borderMode,
+                 boolean dialogEnabled, int dialogStyle, int dialogVerticalPos, int dialogBoxHeight, int dialogBoxWidthPct,
+                 String dialogName, String dialogText, String[] fx) {
+        this(blockSize, paletteIndex, dither, ghost, PixelPipeline.GHOST_OFFSET, PixelPipeline.GHOST_ALPHA, PixelPipeline.GHOST_TRAILS,
+            outline, borderMode, dialogEnabled, dialogStyle, dialogVerticalPos, dialogBoxHeight, dialogBoxWidthPct, dialogName, dialogText, fx);
+    }
+
+    private RenderParams(int blockSize, int paletteIndex, boolean dither, boolean ghost, int ghostOffset, float ghostAlpha, int ghostTrails,
+                         boolean outline, int borderMode,
+                         boolean dialogEnabled, int dialogStyle, int dialogVerticalPos, int dialogBoxHeight, int dialogBoxWidthPct,
+                         String dialogName, String dialogText, String[] fx) {
+        if (ghostOffset < 1 || !(ghostAlpha >= 0 && ghostAlpha <= 1) || ghostTrails < 1) {
+            throw new IllegalArgumentException("Invalid ghost " + ghostOffset + "px, " + ghostAlpha + ", " + ghostTrails + " trails");
+        }
+        this.blockSize = blockSize;
+        this.paletteIndex = paletteIndex;
+        this.dither = dither;
+        this.ghost = ghost;
+        this.ghostOffset = ghostOffset;
+        this.ghostAlpha = ghostAlpha;
+        this.ghostTrails = ghostTrails;
+        this.outline = outline;
+        this.borderMode = borderMode;
+        this.dialogEnabled = dialogEnabled;
+        this.dialogStyle = dialogStyle;
+        this.dialogVerticalPos = dialogVerticalPos;
+        this.dialogBoxHeight = dialogBoxHeight;
+        this.dialogBoxWidthPct = dialogBoxWidthPct;
+        this.dialogName = dialogName != null ? dialogName : "";
+        this.dialogText = dialogText != null ? dialogText : "";
+        this.fx = fx != null ? fx.clone() : new String[0];
+    }
+
+    /** These settings with the ghost trail's offset, opacity and number of copies changed. */
+    RenderParams withGhost(int offset, float alpha, int trails) {
+        return new RenderParams(blockSize, paletteIndex, dither, ghost, offset, alpha, trails, outline, borderMode,
+            dialogEnabled, dialogStyle, dialogVerticalPos, dialogBoxHeight, dialogBoxWidthPct, dialogName, dialogText, fx);
+    }
+
+    /** True if the ghost trail has other settings than the defaults. */
+    boolean customGhost() {
+        return ghostOffset != PixelPipeline.GHOST_OFFSET || ghostAlpha != PixelPipeline.GHOST_ALPHA || ghostTrails != PixelPipeline.GHOST_TRAILS;
+    }
+
+    /** True if o renders the same image underneath the dialog overlay, so only the overlay differs. */
+    boolean sameBase(RenderParams o) {
+        return blockSize == o.blockSize && paletteIndex == o.paletteIndex && dither == o.dither
+            && ghost == o.ghost && ghostOffset == o.ghostOffset && ghostAlpha == o.ghostAlpha && ghostTrails == o.ghostTrails
+            && outline == o.outline && borderMode == o.borderMode && java.util.Arrays.equals(fx, o.fx);
+    }
+
+    /** True if the dialog overlay is on and has something to draw. */
+    boolean hasDialog() {
+        return dialogEnabled && (!dialogName.isEmpty() || !dialogText.isEmpty());
+    }
+}
@@ -0,0 +1,62 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one completed render stage, committed by
+ * {@link RenderMetrics.Span#end}. Enabled with the rest of a recording, e.g.
+ * java -XX:StartFlightRecording=filename=pixelator.jfr -cp out PolyPixelator, and shown
+ * under Pixelator in JDK Mission Control. Only touched through {@link #start} and
+ * {@link #finish}, which take and return Object, so this class is loaded only once a
+ * recording is running, and never on a JDK without jdk.jfr.
+ */
+@Name("pixelator.Stage")
+@Label("Render Stage")
+@Category("Pixelator")
+@Description("One stage of the pixel-art render pipeline")
+@StackTrace(false)
+final class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Block Size")
+    int blockSize;
+
+    @Label("Palette")
+    String palette;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread running the stage, -1 if unknown")
+    @DataAmount(DataAmount.BYTES)
+    long allocated;
+
+    static Object start() {
+        StageEvent e = new StageEvent();
+        e.begin();
+        return e;
+    }
+
+    static void finish(Object event, String stage, int width, int height, int blockSize, String palette, long allocated) {
+        StageEvent e = (StageEvent) event;
+        e.end();
+        if (!e.shouldCommit()) return;
+        e.stage = stage;
+        e.width = width;
+        e.height = height;
+        e.blockSize = blockSize;
+        e.palette = palette;
+        e.allocated = allocated;
+        e.commit();
+    }
+}
@@ -0,0 +1,227 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Converts an image file straight to a PNG file one horizontal strip at a time, for
+ * sources too large to hold in memory.
+ *
+ * Strips are read from the file one after another, run through the same
+ * {@link PixelPipeline} stages, and appended to a {@link PngWriter}, so peak memory
+ * depends on the strip size, not the image size. Strip heights are multiples of both
+ * the block size and the 8-row Bayer period, so blocks and dither never straddle a
+ * strip. State that crosses strip boundaries is carried along explicitly: a tiled
+ * {@link FxChain} keeps the rows above each strip that its neighbourhood stages read
+ * (the last cell row for outline top edges, the last ghost-offset rows for the ghost
+ * trail), and the output row offset (border frame and dialog overlay, which is drawn
+ * in whole-image coordinates onto each strip). The output is the same image the
+ * in-memory pipeline would produce, written as an indexed PNG unless ghost, dialog or
+ * pixel effects blend in extra colours.
+ *
+ * Formats that can only be decoded from the start (baseline JPEG, non-interlaced PNG)
+ * are decoded once, top to bottom, and each strip is rendered as soon as its last row
+ * arrives (see {@link ImageDecoder#readStrips}). Everything else, progressive JPEG and
+ * interlaced PNG included, is read a strip at a time with
+ * {@link ImageReadParam#setSourceRegion}, which readers that can seek to a row (BMP,
+ * TIFF) do without decoding what comes before it. With off-heap rasters enabled (see
+ * {@link PackedRaster}) the file is instead decoded into a packed raster outside the
+ * heap and the strips are cut from that, unless the raster does not fit the off-heap
+ * budget. Either way the heap holds a strip and its intermediates, never the whole
+ * image.
+ */
+final class StreamingPixelator {
+
+    /** Default strip budget: about 4 M source pixels (16 MB as TYPE_INT_RGB). */
+    static final int DEFAULT_STRIP_PIXELS = 1 << 22;
+
+    private StreamingPixelator() {}
+
+    /** Reads just the header of an image file; null if no ImageIO reader understands it. */
+    static Dimension probeSize(File file) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) return null;
+            Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+            if (!it.hasNext()) return null;
+            ImageReader reader = it.next();
+            try {
+                reader.setInput(iis, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** True if decoding a w×h image plus the working copies of a render would likely exhaust the heap. */
+    static boolean recommended(int w, int h) {
+        long bytes = (long) w * h * 4 * 6;
+        return bytes > Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Converts in to a PNG at out with the given parameters and returns how: "off-heap"
+     * if it was decoded into a {@link PackedRaster}, "streamed" if it was read in strips
+     * from the file. progress receives the percentage done. Throws CancellationException
+     * if cancelled fires; a partially written out is deleted in that case and on error.
+     */
+    static String convert(File in, File out, RenderParams p, int stripPixels, BooleanSupplier cancelled, IntConsumer progress) throws IOException {
+        boolean ok = false;
+        try {
+            PackedRaster packed = PackedRaster.enabled()
+                ? ImageDecoder.decodePacked(in, stripPixels, cancelled, pct -> progress.accept(pct / 2)) : null;
+            if (packed != null) {
+                try {
+                    Strips strips = (stripRows, sink) -> {
+                        for (int y0 = 0; y0 < packed.height; y0 += stripRows) {
+                            sink.accept(y0, packed.strip(y0, Math.min(stripRows, packed.height - y0)));
+                        }
+                    };
+                    convert(strips, packed.width, packed.height, out, p, stripPixels, cancelled, pct -> progress.accept(50 + pct / 2));
+                } finally {
+                    packed.close();
+                }
+                ok = true;
+                return "off-heap";
+            }
+            try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+                if (iis == null) throw new IOException("Cannot open " + in.getName());
+                Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+                if (!it.hasNext()) throw new IOException("Unsupported format");
+                ImageReader reader = it.next();
+                try {
+                    reader.setInput(iis, false, true);
+                    int w = reader.getWidth(0);
+                    int h = reader.getHeight(0);
+                    if (w <= 0 || h <= 0) throw new IOException("Invalid image dimensions");
+                    Strips strips;
+                    if (ImageDecoder.sequential(reader)) {
+                        strips = (stripRows, sink) -> ImageDecoder.readStrips(reader, stripRows, cancelled, sink);
+                    } else {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        strips = (stripRows, sink) -> {
+                            for (int y0 = 0; y0 < h; y0 += stripRows) {
+                                int sh = Math.min(stripRows, h - y0);
+                                param.setSourceRegion(new Rectangle(0, y0, w, sh));
+                                sink.accept(y0, PixelPipeline.toIntRgb(reader.read(0, param)));
+                            }
+                        };
+                    }
+                    convert(strips, w, h, out, p, stripPixels, cancelled, progress);
+                    ok = true;
+                    return "streamed";
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } finally {
+            if (!ok) out.delete();
+        }
+    }
+
+    /** Where the strips come from: every row of the source, top to bottom, in strips of stripRows rows. */
+    private interface Strips {
+        void feed(int stripRows, ImageDecoder.StripSink sink) throws IOException;
+    }
+
+    private static void convert(Strips strips, int w, int h, File out, RenderParams p, int stripPixels, BooleanSupplier cancelled, IntConsumer progress) throws IOException {
+        int unit = p.blockSize / gcd(p.blockSize, 8) * 8;
+        int stripRows = Math.max(unit, Math.max(1, heapStripPixels(p, stripPixels) / w) / unit * unit);
+        int bw = p.borderMode > 0 ? PixelPipeline.BORDER_WIDTH : 0;
+        int[] colours = PngExport.canIndex(p) ? PngExport.colours(p) : null; // indexed output if no blending
+
+        try (PngWriter png = new PngWriter(new BufferedOutputStream(new FileOutputStream(out), 1 << 16), w + 2 * bw, h + 2 * bw, colours)) {
+            strips.feed(stripRows, new StripWriter(png, w, h, bw, colours, p, cancelled, progress));
+        }
+    }
+
+    /** Renders each strip it is given and appends it, with its part of the border and dialog, to the PNG. */
+    private static final class StripWriter implements ImageDecoder.StripSink {
+        private final PngWriter png;
+        private final int w, h, bw, outW, outH, borderRgb;
+        private final int[] colours;
+        private final RenderParams p;
+        private final FxChain fx;
+        private final BooleanSupplier cancelled;
+        private final IntConsumer progress;
+        private byte[] idx;
+
+        StripWriter(PngWriter png, int w, int h, int bw, int[] colours, RenderParams p, BooleanSupplier cancelled, IntConsumer progress) {
+            this.png = png;
+            this.w = w;
+            this.h = h;
+            this.bw = bw;
+            this.outW = w + 2 * bw;
+            this.outH = h + 2 * bw;
+            this.borderRgb = PixelPipeline.borderColor(p.borderMode);
+            this.colours = colours;
+            this.p = p;
+            this.fx = FxChain.tiled(p);
+            this.cancelled = cancelled;
+            this.progress = progress;
+        }
+
+        @Override
+        public void accept(int y0, BufferedImage strip) throws IOException {
+            PixelPipeline.checkCancelled(cancelled);
+            int sh = strip.getHeight();
+
+            BlockGrid grid = PixelPipeline.downsampleBlocks(strip, p.blockSize, null, cancelled);
+            grid = fx.cells(grid, cancelled);
+            int[] rows = PixelPipeline.pixels(fx.pixels(grid, cancelled));
+
+            // Output chunk: this strip's rows plus any border rows above/below it
+            int top = y0 == 0 ? bw : 0;
+            int bottom = y0 + sh == h ? bw : 0;
+            int outY0 = y0 == 0 ? 0 : y0 + bw;
+            BufferedImage chunk = new BufferedImage(outW, top + sh + bottom, BufferedImage.TYPE_INT_RGB);
+            int[] dst = PixelPipeline.pixels(chunk);
+            if (bw > 0) Arrays.fill(dst, borderRgb);
+            for (int y = 0; y < sh; y++) {
+                System.arraycopy(rows, y * w, dst, (top + y) * outW + bw, w);
+            }
+            if (p.hasDialog()) {
+                Graphics2D g = chunk.createGraphics();
+                g.translate(0, -outY0);
+                DialogRenderer.drawDialogOntoGraphics(g, outW, outH, p.dialogName, p.dialogText, p.dialogStyle, p.dialogVerticalPos, p.dialogBoxHeight, p.dialogBoxWidthPct);
+                g.dispose();
+            }
+            if (colours == null) {
+                png.writeRows(dst, 0, outW, chunk.getHeight());
+            } else {
+                if (idx == null || idx.length < dst.length) idx = new byte[dst.length];
+                PngExport.toIndices(dst, 0, dst.length, colours, idx, 0);
+                png.writeIndexRows(idx, 0, outW, chunk.getHeight());
+            }
+            progress.accept((int) ((long) (y0 + sh) * 100 / h));
+        }
+    }
+
+    /**
+     * stripPixels, or fewer when the heap is short of room for them: half the free heap
+     * over what a pixel costs on its way through a strip (source, expanded rows, up to
+     * the source, output and trimmed copy a plugin pixel stage writes, ghost needing only
+     * the output, then output chunk and indices), so a small heap gets thinner strips
+     * instead of an OutOfMemoryError.
+     */
+    private static int heapStripPixels(RenderParams p, int stripPixels) {
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        int perPixel = 4 + 4 + 4 + 1 + (FxChain.of(p, 1).hasPixelStages() ? 12 : 0);
+        return (int) Math.max(1, Math.min(stripPixels, free / 2 / perPixel));
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
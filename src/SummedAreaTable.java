@@ -0,0 +1,127 @@
+import java.awt.image.BufferedImage;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Per-channel integral image of a TYPE_INT_RGB source, built once per loaded image.
+ *
+ * Entry (x, y) holds the channel sum of every pixel above and left of (x, y), so any
+ * block sum is four lookups regardless of block size. Sums are kept as wrapping
+ * 32-bit ints: a block sum is at most 255 × block area, which stays below 2^32 for
+ * blocks up to 4096×4096, so evaluating the four-corner difference modulo 2^32 and
+ * reading it back unsigned gives the exact sum. That halves the footprint of a
+ * long[] table.
+ */
+final class SummedAreaTable {
+
+    /** Largest block edge for which the wrapping 32-bit sums stay exact. */
+    static final int MAX_BLOCK = 4096;
+
+    final int width;
+    final int height;
+    private final int stride;
+    private final int[] r;
+    private final int[] g;
+    private final int[] b;
+
+    private SummedAreaTable(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int n = stride * (height + 1);
+        r = new int[n];
+        g = new int[n];
+        b = new int[n];
+    }
+
+    /** True if a table for a w×h image fits comfortably (under half) in the heap still available. */
+    static boolean fits(int w, int h) {
+        long cells = (long) (w + 1) * (h + 1);
+        if (cells > Integer.MAX_VALUE - 8) return false;
+        Runtime rt = Runtime.getRuntime();
+        long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        return cells * 3 * 4 < available / 2;
+    }
+
+    /**
+     * Builds the table for src, or returns null if it would not fit in memory.
+     * Polls cancelled once per row and throws CancellationException if it fires.
+     */
+    static SummedAreaTable build(BufferedImage src, BooleanSupplier cancelled) {
+        src = PixelPipeline.toIntRgb(src);
+        int w = src.getWidth();
+        int h = src.getHeight();
+        Builder builder = builder(w, h);
+        if (builder == null) return null;
+        int[] in = PixelPipeline.pixels(src);
+        for (int y = 0; y < h; y++) {
+            PixelPipeline.checkCancelled(cancelled);
+            builder.addRow(in, y * w);
+        }
+        return builder.finish();
+    }
+
+    /** An empty table for a w×h image to be filled row by row, or null if it would not fit in memory. */
+    static Builder builder(int w, int h) {
+        return fits(w, h) ? new Builder(new SummedAreaTable(w, h)) : null;
+    }
+
+    /**
+     * Fills a table one source row at a time, top to bottom, so it can be built while
+     * the rows are still arriving from a decoder.
+     */
+    static final class Builder {
+        private final SummedAreaTable sat;
+        private int rows;
+
+        private Builder(SummedAreaTable sat) {
+            this.sat = sat;
+        }
+
+        /** Rows added so far, i.e. the index of the next row expected. */
+        int rows() {
+            return rows;
+        }
+
+        /** Adds the next row, read as 0xRRGGBB from rgb[offset, offset + width). */
+        void addRow(int[] rgb, int offset) {
+            int w = sat.width;
+            int[] r = sat.r, g = sat.g, b = sat.b;
+            int above = rows * sat.stride;
+            int cur = above + sat.stride;
+            int rowR = 0, rowG = 0, rowB = 0;
+            for (int x = 0; x < w; x++) {
+                int c = rgb[offset + x];
+                rowR += (c >> 16) & 0xFF;
+                rowG += (c >> 8) & 0xFF;
+                rowB += c & 0xFF;
+                r[cur + x + 1] = r[above + x + 1] + rowR;
+                g[cur + x + 1] = g[above + x + 1] + rowG;
+                b[cur + x + 1] = b[above + x + 1] + rowB;
+            }
+            rows++;
+        }
+
+        /** The finished table, or null if fewer than height rows were added. */
+        SummedAreaTable finish() {
+            return rows == sat.height ? sat : null;
+        }
+    }
+
+    /**
+     * Integer average of the block [x0, x0+bw) × [y0, y0+bh) as 0xRRGGBB, rounded down
+     * exactly like summing the pixels and dividing by the count.
+     */
+    int blockAverage(int x0, int y0, int bw, int bh) {
+        int a = y0 * stride + x0;
+        int c = (y0 + bh) * stride + x0;
+        long count = (long) bw * bh;
+        int avgR = (int) (sum(r, a, c, bw) / count);
+        int avgG = (int) (sum(g, a, c, bw) / count);
+        int avgB = (int) (sum(b, a, c, bw) / count);
+        return (avgR << 16) | (avgG << 8) | avgB;
+    }
+
+    private static long sum(int[] t, int topLeft, int bottomLeft, int bw) {
+        return (t[bottomLeft + bw] - t[bottomLeft] - t[topLeft + bw] + t[topLeft]) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,193 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PixelKernels} on the incubating Vector API (JDK 16+), as wide as the CPU
+ * allows: 8 ints per step with AVX2, 16 with AVX-512.
+ *
+ * Kept out of src/*.java because it only compiles, and only loads, with
+ * --add-modules jdk.incubator.vector; {@link PixelKernels} finds it by name and falls
+ * back to the scalar loops when it is missing. Every result is bit-identical to the
+ * scalar one: the block sums are exact integers, and the redmean distance repeats the
+ * scalar expression operation for operation, float where it is float and double where
+ * it is double, with no fused multiply-add.
+ */
+final class VectorKernels extends PixelKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    /** Floats with as many lanes as DOUBLES, so float results widen lane for lane. */
+    private static final VectorSpecies<Float> FLOATS = VectorSpecies.of(float.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    /** Padding colour channel: its distance exceeds any real one (at most about 765), so it never wins. */
+    private static final float FAR = 10_000f;
+
+    /** Per-thread column sums of one cell row, three channels side by side. */
+    private final ThreadLocal<int[]> columns = ThreadLocal.withInitial(() -> new int[0]);
+    /** Channels of the last palette seen as padded float arrays; palettes change rarely. */
+    private volatile Channels lastPalette;
+
+    VectorKernels() {
+        // Below four lanes the per-step overhead eats the gain, and the int lanes of a
+        // 4096-pixel block could overflow
+        if (INTS.length() < 4) throw new UnsupportedOperationException("Vector width " + INTS.vectorBitSize() + " bits");
+    }
+
+    @Override
+    String name() {
+        return "vector " + INTS.vectorBitSize() + "-bit";
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  BLOCK AVERAGES
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    /**
+     * Two passes over the cell row. First, for each run of lanes across the row, every
+     * pixel of the row's bh lines is unpacked and added into red, green and blue
+     * accumulators held in registers, then stored once as per-column sums. Second, each
+     * block adds up its columns. The first pass does all the per-pixel work, whatever the
+     * block size; the second touches each column once per cell row.
+     */
+    @Override
+    void averageCellRow(int[] in, BlockGrid grid, int cy, int[] cells) {
+        if (grid.blockSize > SummedAreaTable.MAX_BLOCK) {
+            SCALAR.averageCellRow(in, grid, cy, cells);
+            return;
+        }
+        int w = grid.width;
+        int by = cy * grid.blockSize;
+        int bh = grid.cellHeight(cy);
+        int[] cols = columns.get();
+        if (cols.length < 3 * w) {
+            cols = new int[3 * w];
+            columns.set(cols);
+        }
+        // Column sums are at most 255 × bh ≤ 255 × MAX_BLOCK, far inside an int
+        int lanes = INTS.length();
+        int bound = INTS.loopBound(w);
+        int x = 0;
+        for (; x < bound; x += lanes) {
+            IntVector r = IntVector.zero(INTS), g = r, b = r;
+            for (int y = by, i = by * w + x; y < by + bh; y++, i += w) {
+                IntVector v = IntVector.fromArray(INTS, in, i);
+                r = r.add(v.lanewise(VectorOperators.LSHR, 16).and(0xFF));
+                g = g.add(v.lanewise(VectorOperators.LSHR, 8).and(0xFF));
+                b = b.add(v.and(0xFF));
+            }
+            r.intoArray(cols, x);
+            g.intoArray(cols, w + x);
+            b.intoArray(cols, 2 * w + x);
+        }
+        for (; x < w; x++) {
+            int r = 0, g = 0, b = 0;
+            for (int y = by, i = by * w + x; y < by + bh; y++, i += w) {
+                int rgb = in[i];
+                r += (rgb >> 16) & 0xFF;
+                g += (rgb >> 8) & 0xFF;
+                b += rgb & 0xFF;
+            }
+            cols[x] = r;
+            cols[w + x] = g;
+            cols[2 * w + x] = b;
+        }
+
+        for (int cx = 0; cx < grid.cols; cx++) {
+            int bx = cx * grid.blockSize;
+            int bw = grid.cellWidth(cx);
+            long count = (long) bw * bh;
+            long rSum = sum(cols, bx, bw), gSum = sum(cols, w + bx, bw), bSum = sum(cols, 2 * w + bx, bw);
+            int avgR = (int) (rSum / count);
+            int avgG = (int) (gSum / count);
+            int avgB = (int) (bSum / count);
+            cells[cy * grid.cols + cx] = (avgR << 16) | (avgG << 8) | avgB;
+        }
+    }
+
+    /** Sum of a[from, from + n), in longs: a whole block can pass the int range. */
+    private static long sum(int[] a, int from, int n) {
+        long s = 0;
+        int i = 0;
+        int lanes = INTS.length();
+        // Each lane gathers n / lanes column sums of at most 255 × MAX_BLOCK each, which
+        // stays an int for blocks up to MAX_BLOCK once there are four lanes or more
+        if (n >= lanes) {
+            IntVector acc = IntVector.zero(INTS);
+            for (int bound = INTS.loopBound(n); i < bound; i += lanes) acc = acc.add(IntVector.fromArray(INTS, a, from + i));
+            for (int lane = 0; lane < lanes; lane++) s += acc.lane(lane);
+        }
+        for (; i < n; i++) s += a[from + i];
+        return s;
+    }
+
+    // ═══════════════════════════════════════════════════════════════════════════════
+    //  NEAREST COLOUR
+    // ═══════════════════════════════════════════════════════════════════════════════
+
+    /** A palette's channels as floats, padded to whole vectors with {@link #FAR}. */
+    private static final class Channels {
+        final int[] palette;
+        final float[] r, g, b;
+
+        Channels(int[] palette) {
+            this.palette = palette;
+            int n = (palette.length + FLOATS.length() - 1) / FLOATS.length() * FLOATS.length();
+            r = new float[n];
+            g = new float[n];
+            b = new float[n];
+            java.util.Arrays.fill(r, FAR);
+            java.util.Arrays.fill(g, FAR);
+            java.util.Arrays.fill(b, FAR);
+            for (int i = 0; i < palette.length; i++) {
+                r[i] = (palette[i] >> 16) & 0xFF;
+                g[i] = (palette[i] >> 8) & 0xFF;
+                b[i] = palette[i] & 0xFF;
+            }
+        }
+    }
+
+    /**
+     * The redmean distance to a vector of palette entries at once, then the lane-wise
+     * minimum and the first lane holding it. Palettes are compared by identity: callers
+     * pass the shared arrays from {@link Palettes}.
+     */
+    @Override
+    int nearestRedmean(float r, float g, float b, int[] palette) {
+        Channels c = lastPalette;
+        if (c == null || c.palette != palette) lastPalette = c = new Channels(palette);
+        FloatVector rv = FloatVector.broadcast(FLOATS, r);
+        FloatVector gv = FloatVector.broadcast(FLOATS, g);
+        FloatVector bv = FloatVector.broadcast(FLOATS, b);
+        int best = 0;
+        double bestDist = Double.MAX_VALUE;
+        for (int i = 0; i < c.r.length; i += FLOATS.length()) {
+            FloatVector cr = FloatVector.fromArray(FLOATS, c.r, i);
+            FloatVector cg = FloatVector.fromArray(FLOATS, c.g, i);
+            FloatVector cb = FloatVector.fromArray(FLOATS, c.b, i);
+            // As in PixelPipeline.redmeanDistance: r - cr and r + cr are float sums, the rest double
+            DoubleVector dr = widen(rv.sub(cr));
+            DoubleVector dg = widen(gv.sub(cg));
+            DoubleVector db = widen(bv.sub(cb));
+            DoubleVector rBar = widen(rv.add(cr)).div(2.0);
+            DoubleVector termR = rBar.div(256.0).add(2.0).mul(dr).mul(dr);
+            DoubleVector termG = dg.mul(4.0).mul(dg);
+            DoubleVector termB = DoubleVector.broadcast(DOUBLES, 255.0).sub(rBar).div(256.0).add(2.0).mul(db).mul(db);
+            DoubleVector dist = termR.add(termG).add(termB).lanewise(VectorOperators.SQRT);
+            double min = dist.reduceLanes(VectorOperators.MIN);
+            if (min < bestDist) {
+                bestDist = min;
+                VectorMask<Double> at = dist.compare(VectorOperators.EQ, min);
+                best = i + at.firstTrue();
+            }
+        }
+        return best;
+    }
+
+    private static DoubleVector widen(FloatVector v) {
+        return (DoubleVector) v.convertShape(VectorOperators.F2D, DOUBLES, 0);
+    }
+}